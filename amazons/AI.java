@@ -1,21 +1,15 @@
 package amazons;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-
-
-import static amazons.Piece.*;
-
 /** A Player that automatically generates moves.
  *  @author John Schulz
  */
 class AI extends Player {
 
-    /** A position magnitude indicating a win (for white if positive, black
-     *  if negative). */
-    private static final int WINNING_VALUE = Integer.MAX_VALUE - 1;
-    /** A magnitude greater than a normal value. */
-    private static final int INFTY = Integer.MAX_VALUE;
+    /** The default size of the transposition table, in megabytes. */
+    static final int DEFAULT_HASH_SIZE = 64;
+
+    /** The default size of the evaluation cache, in megabytes. */
+    static final int DEFAULT_EVAL_CACHE_SIZE = 4;
 
     /** A new AI with no piece or controller (intended to produce
      *  a template). */
@@ -25,191 +19,415 @@ class AI extends Player {
 
     /** A new AI playing PIECE under control of CONTROLLER. */
     AI(Piece piece, Controller controller) {
+        this(piece, controller, null);
+    }
+
+    /** A new AI playing PIECE under control of CONTROLLER that shares
+     *  its settings and transposition table with TEMPLATE, if non-null. */
+    private AI(Piece piece, Controller controller, AI template) {
         super(piece, controller);
+        if (template != null) {
+            _hashSize = template._hashSize;
+            _threads = template._threads;
+            _youngBrothers = template._youngBrothers;
+            _splitPly = template._splitPly;
+            _depthLimit = template._depthLimit;
+            _showStats = template._showStats;
+            _evalCacheSize = template._evalCacheSize;
+            _tablebase = template._tablebase;
+            _book = template._book;
+            _ponder = template._ponder;
+            _clock = template._clock;
+            _template = template;
+        }
     }
 
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        return new AI(piece, controller, this);
     }
 
     @Override
     String myMove() {
+        stopPondering();
+        _clock.startMove(board());
         Move move = findMove();
+        _clock.endMove();
         _controller.reportMove(move);
+        if (_showStats) {
+            reportStats(move);
+        }
         return move.toString();
     }
 
-    /** Return a move for me from the current position, assuming there
-     *  is a move. */
-    private Move findMove() {
-        Board b = new Board(board());
-        if (_myPiece == WHITE) {
-            findMove(b, maxDepth(b), true, 1, -INFTY, INFTY);
-        } else {
-            findMove(b, maxDepth(b), true, -1, -INFTY, INFTY);
+    @Override
+    void moveMade(Move move) {
+        stopPondering();
+        if (board().turn() != myPiece() && board().winner() == null
+            && pondersAgainst(_controller.player(myPiece().opponent()))) {
+            startPondering();
         }
-        return _lastFoundMove;
     }
 
-    /** The move found by the last call to one of the ...FindMove methods
-     *  below. */
-    private Move _lastFoundMove;
+    @Override
+    void dismiss() {
+        stopPondering();
+    }
 
-    /** Find a move from position BOARD and return its value, recording
-     *  the move found in _lastFoundMove iff SAVEMOVE. The move
-     *  should have maximal value or have value > BETA if SENSE==1,
-     *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
-     *  DEPTH levels.  Searching at level 0 simply returns a static estimate
-     *  of the board value and does not set _lastMoveFound. */
-    private int findMove(Board board, int depth, boolean saveMove, int sense,
-                         int alpha, int beta) {
-        if (depth == 0 || board.winner() != null) {
-            return staticScore(board);
-        } else {
-            if (sense == -1) {
-                Iterator<Move> a = board.legalMoves(BLACK);
-                int best = beta;
-                Board right = new Board(board);
-                while (a.hasNext()) {
-                    Move check1 = a.next();
-                    right.makeMove(check1);
-                    int response = findMove(right, depth - 1,
-                            false, sense * -1, alpha, beta);
-                    right.undo();
-                    if (response <= best) {
-                        best = staticScore(right);
-                        if (saveMove) {
-                            _lastFoundMove = check1;
-                        }
-                        beta = Math.min(beta, response);
-                        if (beta <= alpha) {
-                            break;
-                        }
-                    }
-                }
-
-                return best;
-            } else if (sense == 1) {
-                Iterator<Move> a = board.legalMoves(WHITE);
-                int best = alpha;
-                Board right = new Board(board);
-                while (a.hasNext()) {
-                    Move check1 = a.next();
-                    right.makeMove(check1);
-                    int response = findMove(right, depth - 1,
-                            false, sense * -1, alpha, beta);
-                    right.undo();
-                    if (response >= best) {
-                        best = staticScore(right);
-                        if (saveMove) {
-                            _lastFoundMove = check1;
-                        }
-                        alpha = Math.min(beta, response);
-                        if (beta <= alpha) {
-                            break;
-                        }
-                    }
-                }
-
-                return best;
-            }
+    /** Use a transposition table of MEGABYTES megabytes in the AIs
+     *  I create. */
+    void setHashSize(int megabytes) {
+        _hashSize = megabytes;
+        _table = null;
+    }
+
+    /** Have the AIs I create cache static values in an evaluation cache
+     *  of MEGABYTES megabytes, or not at all if MEGABYTES is 0. */
+    void setEvalCacheSize(int megabytes) {
+        _evalCacheSize = megabytes;
+        _evalCache = null;
+    }
+
+    /** Have the AIs I create look up the values of small endgame regions
+     *  in TABLEBASE, or in no table if it is null. */
+    void setTablebase(Tablebase tablebase) {
+        _tablebase = tablebase;
+    }
+
+    /** Have the AIs I create play the moves in BOOK, if it is not null,
+     *  in the positions it covers. */
+    void setOpeningBook(OpeningBook book) {
+        _book = book;
+    }
+
+    /** Have the AIs I create ponder iff PONDER: search the position
+     *  after each of their moves in a background thread while the
+     *  opponent thinks, filling the shared transposition table, until
+     *  the opponent moves.  Does not affect the Young Brothers Wait
+     *  search, which does not use that table, or searches limited by
+     *  depth, whose results would then depend on how far pondering
+     *  got.  Nor does it affect an AI playing another created from the
+     *  same template: they share the clock, table, and processors, so
+     *  pondering would only take time from the side thinking. */
+    void setPonder(boolean ponder) {
+        _ponder = ponder;
+    }
+
+    /** Have the AIs I create search with THREADS threads. */
+    void setThreads(int threads) {
+        _threads = Math.max(1, threads);
+    }
+
+    /** Have the AIs I create use the deterministic Young Brothers Wait
+     *  parallel search (see YoungBrothersSearch) iff YBW, rather than
+     *  helper threads sharing the transposition table. */
+    void setYoungBrothers(boolean ybw) {
+        _youngBrothers = ybw;
+    }
+
+    /** Have the AIs I create search in split-ply mode (see
+     *  Searcher.setSplitPly) iff SPLIT.  Does not affect the Young
+     *  Brothers Wait search. */
+    void setSplitPly(boolean split) {
+        _splitPly = split;
+    }
+
+    /** Have the AIs I create search exactly to depth DEPTH, ignoring the
+     *  clock, if DEPTH > 0, which makes their moves reproducible when
+     *  used with the Young Brothers Wait search. Otherwise, they search
+     *  as deeply as time allows. */
+    void setDepthLimit(int depth) {
+        _depthLimit = depth;
+    }
+
+    /** Allow the AIs I create MOVESECONDS seconds per move and, all
+     *  together, GAMESECONDS seconds per game. */
+    void setTimeLimits(double moveSeconds, double gameSeconds) {
+        _clock = new TimeManager(moveSeconds, gameSeconds);
+    }
+
+    /** Report search statistics on the standard error after each move
+     *  iff SHOW. */
+    void setShowStats(boolean show) {
+        _showStats = show;
+    }
+
+    /** Return true iff I am pondering. */
+    boolean pondering() {
+        return _ponderThread != null;
+    }
+
+    /** Return true iff I ponder while OPPONENT, or no player if it is
+     *  null, is to move (see setPonder). */
+    boolean pondersAgainst(Player opponent) {
+        return _ponder && !_youngBrothers && _depthLimit == 0
+            && !(opponent instanceof AI
+                 && ((AI) opponent)._template == _template);
+    }
+
+    /** Return my transposition table, creating it if needed.  The AIs
+     *  created from one template share its table, which is safe because
+     *  its entries are keyed by complete positions.  Only the Searchers
+     *  use it, so it is not created until one is. */
+    synchronized TranspositionTable table() {
+        if (_template != null) {
+            return _template.table();
+        }
+        if (_table == null) {
+            _table = new TranspositionTable(_hashSize);
         }
-        return 0;
+        return _table;
     }
 
-    /** Return a heuristically determined maximum search depth
-     *  based on characteristics of BOARD. */
-    private int maxDepth(Board board) {
-        ArrayList<Square> blacks = new ArrayList<>();
-        ArrayList<Square> whites = new ArrayList<>();
-        for (int x = 0; x < 100; x += 1) {
-            Square y = Square.sq(x);
-            if (board.get(y) == BLACK) {
-                blacks.add(y);
-            } else if (board.get(y) == WHITE) {
-                whites.add(y);
-            }
+    /** Return my evaluation cache, creating it if needed, or null if I
+     *  use none.  Like the transposition table, it is shared by the AIs
+     *  created from one template. */
+    private synchronized EvalCache evalCache() {
+        if (_template != null) {
+            return _template.evalCache();
         }
-        int trapped = 0;
-        if (board.turn() == WHITE) {
-            for (Square item : whites) {
-                Iterator<Square> w = board.reachableFrom(item, null);
-                if (!w.hasNext()) {
-                    trapped += 1;
-                }
-            }
-        } else {
-            for (Square item : whites) {
-                Iterator<Square> w = board.reachableFrom(item, null);
-                if (!w.hasNext()) {
-                    trapped += 1;
-                }
-            }
+        if (_evalCache == null && _evalCacheSize > 0) {
+            _evalCache = new EvalCache(_evalCacheSize);
         }
-        int N = board.numMoves();
-        final int a1 = 50;
-        final int a2 = 35;
-        if (trapped == 3 || N > a1) {
-            return 3;
-        } else if (trapped == 2 || N > a2) {
-            return 2;
-        } else {
-            return 1;
+        return _evalCache;
+    }
+
+    /** Start searching the current position, in which my opponent is to
+     *  move, in a background thread that runs until stopPondering.  The
+     *  search ignores the clock and considers every reply. */
+    private void startPondering() {
+        if (_ponderer == null) {
+            _ponderer = new Searcher(table(), _clock);
+            _ponderer.setDepthLimit(Searcher.MAX_DEPTH);
+            _ponderer.setSplitPly(_splitPly);
+            _ponderer.setEvalCache(evalCache());
         }
+        _ponderer.setPosition(board());
+        Searcher ponderer = _ponderer;
+        _ponderThread = new Thread(() -> ponderer.think(Searcher.MAX_DEPTH,
+                                                        1));
+        _ponderThread.setDaemon(true);
+        _ponderThread.start();
     }
 
+    /** Stop pondering, if I am, and wait for the search to finish. */
+    private void stopPondering() {
+        if (_ponderThread == null) {
+            return;
+        }
+        _ponderer.stop();
+        try {
+            _ponderThread.join();
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException("pondering interrupted");
+        }
+        _ponderThread = null;
+        _ponderNodes = _ponderer.nodes();
+        _ponderDepth = _ponderer.depthReached();
+    }
 
-    /** Return a heuristic value for BOARD. */
-    private int staticScore(Board board) {
-        Piece winner = board.winner();
-        if (winner == BLACK) {
-            return -WINNING_VALUE;
-        } else if (winner == WHITE) {
-            return WINNING_VALUE;
-        } else {
-            ArrayList<Square> blacks = new ArrayList<>();
-            ArrayList<Square> whites = new ArrayList<>();
-            for (int x = 0; x < 100; x += 1) {
-                Square y = Square.sq(x);
-                if (board.get(y) == BLACK) {
-                    blacks.add(y);
-                } else if (board.get(y) == WHITE) {
-                    whites.add(y);
-                }
+    /** Return a move for me from the current position, assuming there
+     *  is a move.  Searches to increasing depths until the time allotted
+     *  by _clock runs out, returning the best move of the last search
+     *  that finished.  Each search starts with the best moves stored in
+     *  the transposition table by the one before.
+     *
+     *  With more than one thread, the extra threads run helper searches
+     *  of the same position (see Searcher.setHelper) that share the
+     *  transposition table, each on its own copy of the board, until
+     *  the main search finishes.  The result is that of the deepest
+     *  complete search, preferring the main one.
+     *
+     *  Once the amazons have been walled off into single-colored regions,
+     *  the endgame solver usually finds an optimal move far sooner, so it
+     *  is tried first, and the search is used only if it gives up.
+     *  Before either, the move is looked up in the opening book, if
+     *  there is one. */
+    private Move findMove() {
+        _solved = false;
+        _bookEntry = OpeningBook.MISSING;
+        if (_book != null) {
+            long entry = _book.probe(board());
+            if (entry != OpeningBook.MISSING
+                && board().isLegal(Move.mv(OpeningBook.move(entry)))) {
+                _bookEntry = entry;
+                return Move.mv(OpeningBook.move(entry));
             }
-            int whiteTrapped = 0;
-            int blackTrapped = 0;
-            int blackMoves = 0;
-            int whiteMoves = 0;
-            for (Square item : blacks) {
-                Iterator<Square> b = board.reachableFrom(item, null);
-                if (!b.hasNext()) {
-                    blackTrapped += 1;
-                }
-                while (b.hasNext()) {
-                    b.next();
-                    blackMoves += 1;
-                }
+        }
+        if (_endgame == null) {
+            _endgame = new EndgameSolver(ENDGAME_NODE_LIMIT,
+                                         ENDGAME_MEMO_SIZE);
+            _endgame.setTablebase(_tablebase);
+        }
+        int solution = _endgame.solve(board(), _depthLimit > 0 ? null : _clock,
+                                      ENDGAME_TIME_FRACTION);
+        if (solution != 0) {
+            _solved = true;
+            return Move.mv(solution);
+        }
+        if (_youngBrothers) {
+            if (_ybw == null) {
+                _ybw = new YoungBrothersSearch(_threads, _clock);
+                _ybw.setDepthLimit(_depthLimit);
             }
-            for (Square item : whites) {
-                Iterator<Square> w = board.reachableFrom(item, null);
-                if (!w.hasNext()) {
-                    whiteTrapped += 1;
-                }
-                while (w.hasNext()) {
-                    w.next();
-                    whiteMoves += 1;
-                }
+            return Move.mv(_ybw.think(board(), Searcher.MAX_DEPTH,
+                                      NEXT_DEPTH_FRACTION));
+        }
+        if (_searchers == null) {
+            _searchers = new Searcher[_threads];
+            for (int i = 0; i < _threads; i += 1) {
+                _searchers[i] = new Searcher(table(), _clock);
+                _searchers[i].setHelper(i);
+                _searchers[i].setDepthLimit(_depthLimit);
+                _searchers[i].setSplitPly(_splitPly);
+                _searchers[i].setEvalCache(evalCache());
             }
-            int totalScore = whiteMoves - blackMoves;
-            if (whiteTrapped > blackTrapped) {
-                totalScore += 100;
-            } else {
-                totalScore -= 100;
+        }
+        for (Searcher searcher : _searchers) {
+            searcher.setPosition(board());
+        }
+        Thread[] helpers = new Thread[_threads - 1];
+        for (int i = 0; i < helpers.length; i += 1) {
+            Searcher helper = _searchers[i + 1];
+            helpers[i] = new Thread(() -> helper.think(Searcher.MAX_DEPTH, 1));
+            helpers[i].setDaemon(true);
+            helpers[i].start();
+        }
+        Searcher best = _searchers[0];
+        best.think(Searcher.MAX_DEPTH, NEXT_DEPTH_FRACTION);
+        for (int i = 0; i < helpers.length; i += 1) {
+            _searchers[i + 1].stop();
+            try {
+                helpers[i].join();
+            } catch (InterruptedException excp) {
+                throw new IllegalStateException("search interrupted");
+            }
+            if (_searchers[i + 1].depthReached() > best.depthReached()) {
+                best = _searchers[i + 1];
             }
-            return totalScore;
         }
+        return Move.mv(best.bestMove());
+    }
 
+    /** Print statistics about the search that found MOVE on the
+     *  standard error. */
+    private void reportStats(Move move) {
+        if (_bookEntry != OpeningBook.MISSING) {
+            System.err.printf("%s: book move, value %d, %d ms%n", move,
+                              OpeningBook.score(_bookEntry),
+                              _clock.elapsedMillis());
+            return;
+        }
+        if (_solved) {
+            System.err.printf("%s: solved %d regions, margin %d, %d nodes,"
+                              + " %d ms%n  %s%n", move, _endgame.regions(),
+                              _endgame.margin(), _endgame.nodes(),
+                              _clock.elapsedMillis(), _endgame.memo());
+            if (_tablebase != null) {
+                System.err.printf("  %s%n", _tablebase);
+            }
+            return;
+        }
+        long nodes = 0, cutoffs = 0, firstCutoffs = 0, researches = 0;
+        int depth = 0;
+        if (_youngBrothers) {
+            nodes = _ybw.nodes();
+            depth = _ybw.depthReached();
+        } else {
+            for (Searcher searcher : _searchers) {
+                nodes += searcher.nodes();
+                cutoffs += searcher.cutoffs();
+                firstCutoffs += searcher.firstMoveCutoffs();
+                researches += searcher.aspirationFailures();
+                depth = Math.max(depth, searcher.depthReached());
+            }
+        }
+        System.err.printf("%s: depth %d, %d nodes, %d threads, %d ms%n"
+                          + "  %d cutoffs, %.1f%% by first move,"
+                          + " %d aspiration re-searches%n",
+                          move, depth, nodes, _threads,
+                          _clock.elapsedMillis(), cutoffs,
+                          cutoffs == 0 ? 0.0 : 100.0 * firstCutoffs / cutoffs,
+                          researches);
+        if (!_youngBrothers) {
+            System.err.printf("  %s%n", table());
+            if (evalCache() != null) {
+                System.err.printf("  %s%n", evalCache());
+            }
+        }
+        if (_ponderNodes > 0) {
+            System.err.printf("  pondered %d nodes, depth %d%n",
+                              _ponderNodes, _ponderDepth);
+            _ponderNodes = 0;
+        }
     }
+
+    /** Fraction of a move's allotted time after which no deeper search
+     *  is started, since it would not finish. */
+    private static final double NEXT_DEPTH_FRACTION = 0.3;
+
+    /** Positions the endgame solver may visit before giving up. */
+    private static final long ENDGAME_NODE_LIMIT = 2_000_000;
+
+    /** Size of the endgame solver's table of region values, in
+     *  megabytes. */
+    private static final int ENDGAME_MEMO_SIZE = 16;
+
+    /** Fraction of a move's allotted time after which the endgame solver
+     *  gives up, leaving the rest to the search. */
+    private static final double ENDGAME_TIME_FRACTION = 0.25;
+
+    /** Size of the transposition table to create, in megabytes. */
+    private int _hashSize = DEFAULT_HASH_SIZE;
+    /** Size of the evaluation cache to create, in megabytes. */
+    private int _evalCacheSize = DEFAULT_EVAL_CACHE_SIZE;
+    /** Number of search threads. */
+    private int _threads = 1;
+    /** True iff searching with YoungBrothersSearch. */
+    private boolean _youngBrothers;
+    /** True iff searching in split-ply mode. */
+    private boolean _splitPly;
+    /** Fixed search depth, or 0 for timed searches. */
+    private int _depthLimit;
+    /** True iff search statistics are reported after each move. */
+    private boolean _showStats;
+    /** The AI I was created from, whose transposition table and
+     *  evaluation cache I use, or null if I use my own. */
+    private AI _template;
+    /** The transposition table, or null if not yet created. */
+    private TranspositionTable _table;
+    /** The evaluation cache, or null if not yet created or not used. */
+    private EvalCache _evalCache;
+    /** The endgame tablebase, or null if none. */
+    private Tablebase _tablebase;
+    /** The opening book, or null if none. */
+    private OpeningBook _book;
+    /** True iff pondering. */
+    private boolean _ponder;
+    /** The search used for pondering, or null if not yet created. */
+    private Searcher _ponderer;
+    /** The thread running _ponderer, or null if not pondering. */
+    private Thread _ponderThread;
+    /** Nodes searched and depth completed by the last pondering search
+     *  not yet reported. */
+    private long _ponderNodes;
+    /** See _ponderNodes. */
+    private int _ponderDepth;
+    /** Allocates the time for each move. */
+    private TimeManager _clock =
+        new TimeManager(TimeManager.DEFAULT_MOVE_SECONDS,
+                        TimeManager.DEFAULT_GAME_SECONDS);
+    /** One Searcher per thread, the first being the main search, or null
+     *  if not yet created. */
+    private Searcher[] _searchers;
+    /** The Young Brothers Wait search, or null if not yet created. */
+    private YoungBrothersSearch _ybw;
+    /** Solves positions whose regions are single-colored, or null if not
+     *  yet created. */
+    private EndgameSolver _endgame;
+    /** True iff my last move came from the endgame solver. */
+    private boolean _solved;
+    /** The book entry for my last move, or OpeningBook.MISSING if it did
+     *  not come from the book. */
+    private long _bookEntry = OpeningBook.MISSING;
 }
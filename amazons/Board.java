@@ -1,10 +1,11 @@
 package amazons;
 
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.Stack;
+import java.util.Random;
 
 import static amazons.Piece.*;
 
@@ -17,19 +18,22 @@ import static amazons.Piece.*;
 class Board {
 
     /**
-     * Definitions of direction for queenMove.  DIR[k] = (dcol, drow)
-     * means that to going one step from (col, row) in direction k,
-     * brings us to (col + dcol, row + drow).
+     * The number of squares on a side of the board.
      */
-    private static final int[][] DIR = {
-            {0, 1}, {1, 1}, {1, 0}, {1, -1},
-            {0, -1}, {-1, -1}, {-1, 0}, {-1, 1}
-    };
+    static final int SIZE = 10;
 
     /**
-     * The number of squares on a side of the board.
+     * The maximum number of legal moves for one side in a position with
+     * at most four amazons per side: no square has more than 35 queen
+     * moves from it.
      */
-    static final int SIZE = 10;
+    static final int MAX_MOVES = 4 * 35 * 35;
+
+    /**
+     * The maximum number of queen moves (without spears) for one side in
+     * a position with at most four amazons per side.
+     */
+    static final int MAX_QUEEN_MOVES = 4 * 35;
 
     /**
      * Initializes a game board with SIZE squares on a side in the
@@ -54,43 +58,43 @@ class Board {
             return;
         }
         _turn = model.turn();
-        _winner = model.winner();
+        _winner = model._winner;
+        _winnerKnown = model._winnerKnown;
         _numMoves = model.numMoves();
-        _pieces = new Piece[SIZE * SIZE];
-        path = model.path;
-        for (int x = 0; x < 100; x += 1) {
-            _pieces[x] = model._pieces[x];
+        _hash = model._hash;
+        _pendingQueenMove = model._pendingQueenMove;
+        System.arraycopy(model._history, 0, _history, 0, _numMoves);
+        System.arraycopy(model._bits, 0, _bits, 0, _bits.length);
+        for (int side = 0; side < 2; side += 1) {
+            _queenCount[side] = model._queenCount[side];
+            _sideMobility[side] = model._sideMobility[side];
+            System.arraycopy(model._queens[side], 0, _queens[side], 0,
+                             _queenCount[side]);
         }
+        System.arraycopy(model._queenSlot, 0, _queenSlot, 0,
+                         _queenSlot.length);
+        System.arraycopy(model._mobility, 0, _mobility, 0,
+                         _mobility.length);
     }
 
     /**
      * Clears the board to the initial position.
      */
     void init() {
-        path = new Stack<>();
         _numMoves = 0;
         _turn = WHITE;
-        _winner = null;
-        _pieces = new Piece[SIZE * SIZE];
-        for (int index = 0; index < _pieces.length; index += 1) {
-            final int a1 = 3;
-            final int a2 = 6;
-            final int a3 = 30;
-            final int a4 = 39;
-            final int a5 = 60;
-            final int a6 = 69;
-            final int a7 = 93;
-            final int a8 = 96;
-            if (index == a1 || index == a2 || index == a3 || index == a4) {
-                _pieces[index] = Piece.WHITE;
-            } else if (index == a5 || index == a6
-                    || index == a7 || index == a8) {
-                _pieces[index] = Piece.BLACK;
-            } else {
-                _pieces[index] = Piece.EMPTY;
-            }
+        _winnerKnown = false;
+        _hash = 0;
+        _pendingQueenMove = 0;
+        Arrays.fill(_bits, 0L);
+        Arrays.fill(_queenCount, 0);
+        Arrays.fill(_sideMobility, 0);
+        for (int index : INITIAL_WHITE) {
+            set(WHITE, index);
+        }
+        for (int index : INITIAL_BLACK) {
+            set(BLACK, index);
         }
-
     }
 
     /**
@@ -108,18 +112,84 @@ class Board {
         return _numMoves;
     }
 
+    /**
+     * Return the Zobrist key of the current position: the XOR of a
+     * random key for each (piece, square) pair on the board, when Black
+     * is to move a side-to-move key, and when half a move has been made
+     * (see moveQueen) a key for the square the spear is to be thrown
+     * from.  Maintained incrementally by
+     * the methods that change the board.
+     */
+    long hash() {
+        return _hash;
+    }
+
+    /**
+     * Return the Zobrist key of the current position computed from
+     * scratch, which should always equal hash().
+     */
+    long computeHash() {
+        long key = _turn == BLACK ? BLACK_TO_MOVE_KEY : 0;
+        if (_pendingQueenMove != 0) {
+            key ^= PENDING_SPEAR_KEYS[Move.toIndex(_pendingQueenMove)];
+        }
+        for (int index = 0; index < SIZE * SIZE; index += 1) {
+            if (!isEmpty(index)) {
+                key ^= pieceKey(get(index), index);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Return the Zobrist key of the image of the current position under
+     * the board symmetry SYMMETRY (see Square.transform), computed from
+     * scratch.  hash(0) == hash().
+     */
+    long hash(int symmetry) {
+        long key = _turn == BLACK ? BLACK_TO_MOVE_KEY : 0;
+        if (_pendingQueenMove != 0) {
+            key ^= PENDING_SPEAR_KEYS[Square.transform(
+                Move.toIndex(_pendingQueenMove), symmetry)];
+        }
+        for (int word = 0; word < 2; word += 1) {
+            for (long rest = _bits[OCCUPIED_SET + word]; rest != 0;
+                 rest &= rest - 1) {
+                int index = (word << WORD_SHIFT)
+                    + Long.numberOfTrailingZeros(rest);
+                key ^= pieceKey(get(index),
+                                Square.transform(index, symmetry));
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Return the Zobrist key for piece P (not EMPTY) on the square whose
+     * index is INDEX.
+     */
+    static long pieceKey(Piece p, int index) {
+        return PIECE_KEYS[setOf(p) / 2][index];
+    }
+
     /**
      * Return the winner in the current position, or null if the game is
-     * not yet finished.
+     * not yet finished: the opponent of a side that has no legal move.
+     * A side has a move iff one of its amazons has an empty square next
+     * to it, since it can move there and throw its spear back to where
+     * it came from; that is, iff its mobility is not 0.  The result is
+     * cached until the board changes.
      */
     Piece winner() {
-        Iterator legalWhite = legalMoves(WHITE);
-        Iterator legalBlack = legalMoves(BLACK);
-        if (!legalWhite.hasNext()) {
-            _winner = BLACK;
-        }
-        if (!legalBlack.hasNext()) {
-            _winner = WHITE;
+        if (!_winnerKnown) {
+            _winner = null;
+            if (mobility(WHITE) == 0) {
+                _winner = BLACK;
+            }
+            if (mobility(BLACK) == 0) {
+                _winner = WHITE;
+            }
+            _winnerKnown = true;
         }
         return _winner;
     }
@@ -128,7 +198,7 @@ class Board {
      * Return the contents the square at S.
      */
     final Piece get(Square s) {
-        return _pieces[s.index()];
+        return get(s.index());
     }
 
     /**
@@ -136,7 +206,79 @@ class Board {
      * 0 <= COL, ROW <= 9.
      */
     final Piece get(int col, int row) {
-        return _pieces[row * 10 + col];
+        return get(row * SIZE + col);
+    }
+
+    /**
+     * Return the contents of the square whose index is INDEX.
+     */
+    final Piece get(int index) {
+        int word = index >>> WORD_SHIFT;
+        long bit = 1L << index;
+        if ((_bits[OCCUPIED_SET + word] & bit) == 0) {
+            return EMPTY;
+        } else if ((_bits[WHITE_SET + word] & bit) != 0) {
+            return WHITE;
+        } else if ((_bits[BLACK_SET + word] & bit) != 0) {
+            return BLACK;
+        } else {
+            return SPEAR;
+        }
+    }
+
+    /**
+     * Return true iff the square whose index is INDEX is empty.
+     */
+    final boolean isEmpty(int index) {
+        return (_bits[OCCUPIED_SET + (index >>> WORD_SHIFT)]
+                & (1L << index)) == 0;
+    }
+
+    /**
+     * Return the number of squares holding P.
+     */
+    final int count(Piece p) {
+        if (p == EMPTY) {
+            return SIZE * SIZE - Long.bitCount(_bits[OCCUPIED_SET])
+                - Long.bitCount(_bits[OCCUPIED_SET + 1]);
+        }
+        int set = setOf(p);
+        return Long.bitCount(_bits[set]) + Long.bitCount(_bits[set + 1]);
+    }
+
+    /**
+     * Return word WORD (0 or 1) of the set of squares holding P, or of
+     * the occupied squares if P is EMPTY: bit K of word 0 stands for
+     * square K, and bit K of word 1 for square K + 64.
+     */
+    final long bits(Piece p, int word) {
+        return _bits[(p == EMPTY ? OCCUPIED_SET : setOf(p)) + word];
+    }
+
+    /**
+     * Store the indices of the squares holding SIDE's amazons in BUF, in
+     * no particular order, returning their number.
+     */
+    int queens(Piece side, int[] buf) {
+        int s = setOf(side) / 2;
+        System.arraycopy(_queens[s], 0, buf, 0, _queenCount[s]);
+        return _queenCount[s];
+    }
+
+    /**
+     * Return the total number of squares to which SIDE's amazons can
+     * move, counting a square once for each amazon that can reach it.
+     */
+    final int mobility(Piece side) {
+        return _sideMobility[setOf(side) / 2];
+    }
+
+    /**
+     * Return the number of squares to which the amazon on the square
+     * whose index is INDEX can move, or 0 if there is no amazon there.
+     */
+    final int mobility(int index) {
+        return _mobility[index];
     }
 
     /**
@@ -150,15 +292,14 @@ class Board {
      * Set square S to P.
      */
     final void put(Piece p, Square s) {
-        _pieces[s.index()] = p;
+        set(p, s.index());
     }
 
     /**
      * Set square (COL, ROW) to P.
      */
     final void put(Piece p, int col, int row) {
-        _pieces[row * 10 + col] = p;
-        _winner = EMPTY;
+        set(p, row * SIZE + col);
     }
 
     /**
@@ -184,7 +325,7 @@ class Board {
      * Return true iff FROM is a valid starting square for a move.
      */
     boolean isLegal(Square from) {
-        return _pieces[from.index()] == _turn;
+        return get(from.index()) == _turn;
     }
 
     /**
@@ -192,28 +333,18 @@ class Board {
      * spear throwing.
      */
     boolean isLegal(Square from, Square to) {
-        int dir = 0;
-        try {
-            dir = from.direction(to);
-        } catch (AssertionError x) {
+        if (!from.isQueenMove(to)) {
             return false;
         }
-        int row = from.row();
-        int col = from.col();
-        int sRow = to.row();
-        int sCol = to.col();
-        int dx = DIR[dir][0];
-        int dy = DIR[dir][1];
-        boolean good = true;
-        while (row != sRow || col != sCol) {
-            row += dy;
-            col += dx;
-            Piece curPiece = _pieces[row * 10 + col];
-            if (curPiece != Piece.EMPTY) {
-                good = false;
+        int target = to.index();
+        for (int index : Square.ray(from.index(), from.direction(to))) {
+            if (!isEmpty(index)) {
+                return false;
+            } else if (index == target) {
+                break;
             }
         }
-        return good;
+        return true;
     }
 
     /**
@@ -243,14 +374,7 @@ class Board {
      * Move FROM-TO(SPEAR), assuming this is a legal move.
      */
     void makeMove(Square from, Square to, Square spear) {
-        Move ourMove = Move.mv(from, to, spear);
-        path.push(ourMove);
-        Piece holdPiece = _pieces[from.index()];
-        _pieces[from.index()] = Piece.EMPTY;
-        _pieces[to.index()] = holdPiece;
-        _pieces[spear.index()] = Piece.SPEAR;
-        _numMoves += 1;
-        changeTurn();
+        makeMove(Move.pack(from.index(), to.index(), spear.index()));
     }
 
     /**
@@ -261,26 +385,76 @@ class Board {
     }
 
     /**
-     * Undo one move.  Has no effect on the initial board.
+     * Move according to the packed move MOVE (see Move.pack), assuming
+     * it is a legal move.
+     */
+    void makeMove(int move) {
+        int from = Move.fromIndex(move), to = Move.toIndex(move);
+        _history[_numMoves] = move;
+        set(get(from), to);
+        set(EMPTY, from);
+        set(SPEAR, Move.spearIndex(move));
+        _numMoves += 1;
+        changeTurn();
+    }
+
+    /**
+     * Make the first half of the packed move MOVE, whose spear is
+     * ignored: move the amazon from its from square to its to square,
+     * assuming this is legal, leaving the spear to be thrown by
+     * throwSpear.  The turn does not change until then.
+     */
+    void moveQueen(int move) {
+        int from = Move.fromIndex(move), to = Move.toIndex(move);
+        _pendingQueenMove = Move.pack(from, to, 0);
+        set(get(from), to);
+        set(EMPTY, from);
+        _hash ^= PENDING_SPEAR_KEYS[to];
+    }
+
+    /**
+     * Complete the move begun by moveQueen by throwing a spear to the
+     * square whose index is SPEAR, assuming this is legal.
+     */
+    void throwSpear(int spear) {
+        int move = _pendingQueenMove | Move.pack(0, 0, spear);
+        _hash ^= PENDING_SPEAR_KEYS[Move.toIndex(move)];
+        _pendingQueenMove = 0;
+        _history[_numMoves] = move;
+        set(SPEAR, spear);
+        _numMoves += 1;
+        changeTurn();
+    }
+
+    /**
+     * Return the packed queen move (with spear 0) made by moveQueen
+     * whose spear has not yet been thrown, or 0 if there is none.
+     */
+    int pendingQueenMove() {
+        return _pendingQueenMove;
+    }
+
+    /**
+     * Undo one move, or the queen move made by moveQueen if its spear
+     * has not been thrown.  Has no effect on the initial board.
      */
     void undo() {
-        if (!path.empty()) {
-            Move un = path.pop();
-            Square from = un.from();
-            Square to = un.to();
-            Square spear = un.spear();
-            Piece color = BLACK;
-            if (turn().toName().equals("Black")) {
-                color = WHITE;
-            } else {
-                color = BLACK;
-            }
-            _pieces[spear.index()] = EMPTY;
-            _pieces[from.index()] = color;
-            _pieces[to.index()] = EMPTY;
+        if (_pendingQueenMove != 0) {
+            int to = Move.toIndex(_pendingQueenMove);
+            _hash ^= PENDING_SPEAR_KEYS[to];
+            set(get(to), Move.fromIndex(_pendingQueenMove));
+            set(EMPTY, to);
+            _pendingQueenMove = 0;
+        } else if (_numMoves > 0) {
+            _numMoves -= 1;
+            int move = _history[_numMoves];
+            int to = Move.toIndex(move);
+            Piece color = get(to);
+            set(EMPTY, Move.spearIndex(move));
+            set(EMPTY, to);
+            set(color, Move.fromIndex(move));
             changeTurn();
         }
-
     }
 
     /**
@@ -311,6 +485,116 @@ class Board {
         return new LegalMoveIterator(side);
     }
 
+    /**
+     * Store all legal moves for SIDE (regardless of whose turn it is) in
+     * packed form (see Move.pack) in BUF, returning their number.  BUF
+     * must have room for all of them; MAX_MOVES suffices when there are
+     * at most four amazons per side.  The moves come in the same order
+     * as from legalMoves(SIDE).  Allocates nothing.
+     */
+    int legalMoves(Piece side, int[] buf) {
+        int n = 0;
+        int set = setOf(side);
+        for (int word = 0; word < 2; word += 1) {
+            long queens = _bits[set + word];
+            while (queens != 0) {
+                int from = (word << WORD_SHIFT)
+                    + Long.numberOfTrailingZeros(queens);
+                queens &= queens - 1;
+                n = legalMoves(from, buf, n);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Store the legal moves of the amazon on the square whose index is
+     * FROM in packed form into BUF, starting at BUF[N], in the same order
+     * as from legalMoves(Piece).  Return the new number of moves in BUF.
+     * There are at most 35 * 35 of them.
+     */
+    int legalMoves(int from, int[] buf, int n) {
+        for (int dir = 0; dir < 8; dir += 1) {
+            for (int to : Square.ray(from, dir)) {
+                if (!isEmpty(to)) {
+                    break;
+                }
+                n = spearThrows(from, to, buf, n);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Store the queen moves for SIDE (regardless of whose turn it is)
+     * in BUF, packed as for Move.pack with spear 0, returning their
+     * number.  BUF must have room for all of them; MAX_QUEEN_MOVES
+     * suffices when there are at most four amazons per side.  Allocates
+     * nothing.
+     */
+    int queenMoves(Piece side, int[] buf) {
+        int n = 0;
+        int set = setOf(side);
+        for (int word = 0; word < 2; word += 1) {
+            long queens = _bits[set + word];
+            while (queens != 0) {
+                int from = (word << WORD_SHIFT)
+                    + Long.numberOfTrailingZeros(queens);
+                queens &= queens - 1;
+                for (int dir = 0; dir < 8; dir += 1) {
+                    for (int to : Square.ray(from, dir)) {
+                        if (!isEmpty(to)) {
+                            break;
+                        }
+                        buf[n] = Move.pack(from, to, 0);
+                        n += 1;
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Store the complete packed moves that finish the queen move made by
+     * moveQueen, one for each square its spear can be thrown to, in BUF,
+     * returning their number.  There is at least one (back to the square
+     * the amazon came from), and no more than 35.
+     */
+    int spearThrows(int[] buf) {
+        int to = Move.toIndex(_pendingQueenMove);
+        int n = 0;
+        for (int dir = 0; dir < 8; dir += 1) {
+            for (int spear : Square.ray(to, dir)) {
+                if (!isEmpty(spear)) {
+                    break;
+                }
+                buf[n] = _pendingQueenMove | Move.pack(0, 0, spear);
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Store the packed moves FROM-TO(s) for every square s reachable by
+     * a spear thrown from TO after moving from FROM into BUF, starting
+     * at BUF[N].  Return the new number of moves in BUF.
+     */
+    private int spearThrows(int from, int to, int[] buf, int n) {
+        int partial = Move.pack(from, to, 0);
+        for (int dir = 0; dir < 8; dir += 1) {
+            for (int spear : Square.ray(to, dir)) {
+                if (!isEmpty(spear) && spear != from) {
+                    break;
+                }
+                buf[n] = partial | Move.pack(0, 0, spear);
+                n += 1;
+            }
+        }
+        return n;
+    }
+
     /**
      * An iterator used by reachableFrom.
      */
@@ -321,10 +605,11 @@ class Board {
          * treating ASEMPTY as empty.
          */
         ReachableFromIterator(Square from, Square asEmpty) {
-            _from = from;
-            _dir = -1;
+            _from = from.index();
+            _dir = 0;
             _steps = 0;
-            _asEmpty = asEmpty;
+            _ray = Square.ray(_from, _dir);
+            _asEmpty = asEmpty == null ? -1 : asEmpty.index();
             toNext();
         }
 
@@ -338,7 +623,8 @@ class Board {
             if (!hasNext()) {
                 return null;
             } else {
-                Square ret = _from.queenMove(_dir, _steps);
+                Square ret = Square.sq(_ray[_steps]);
+                _steps += 1;
                 toNext();
                 return ret;
             }
@@ -346,38 +632,45 @@ class Board {
 
         /**
          * Advance _dir and _steps, so that the next valid Square is
-         * _steps steps in direction _dir from _from.
+         * _ray[_steps], moving on to the next direction at the edge of
+         * the board or at an occupied square.
          */
         private void toNext() {
-            while (_dir != 8) {
-                _steps += 1;
-                Square a = _from.queenMove(_dir, _steps);
-                if (a == null || (get(a) != EMPTY && a != _asEmpty)) {
-                    _dir += 1;
-                    _steps = 0;
-                } else {
-                    break;
+            while (_dir < 8) {
+                if (_steps < _ray.length) {
+                    int a = _ray[_steps];
+                    if (isEmpty(a) || a == _asEmpty) {
+                        return;
+                    }
+                }
+                _dir += 1;
+                _steps = 0;
+                if (_dir < 8) {
+                    _ray = Square.ray(_from, _dir);
                 }
             }
-
         }
 
         /**
-         * Starting square.
+         * Index of the starting square.
          */
-        private Square _from;
+        private int _from;
         /**
          * Current direction.
          */
         private int _dir;
         /**
-         * Current distance.
+         * Squares in direction _dir from _from.
+         */
+        private int[] _ray;
+        /**
+         * Current position along _ray.
          */
         private int _steps;
         /**
-         * Square treated as empty.
+         * Index of the square treated as empty, or -1.
          */
-        private Square _asEmpty;
+        private int _asEmpty;
     }
 
     /**
@@ -474,17 +767,252 @@ class Board {
 
     @Override
     public String toString() {
-        String ret = "";
+        StringBuilder ret = new StringBuilder();
         for (int y = SIZE - 1; y >= 0; y -= 1) {
-            ret += "   ";
+            ret.append("   ");
             for (int x = 0; x < SIZE - 1; x += 1) {
-                ret += _pieces[y * 10 + x].toString() + " ";
+                ret.append(get(x, y)).append(" ");
+            }
+            ret.append(get(SIZE - 1, y)).append("\n");
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Set the square whose index is INDEX to P, removing whatever was
+     * there before.  Keeps the hash, the lists of amazons, and their
+     * mobilities up to date.
+     */
+    private void set(Piece p, int index) {
+        Piece old = get(index);
+        if (old == p) {
+            return;
+        }
+        _winnerKnown = false;
+        int word = index >>> WORD_SHIFT;
+        long bit = 1L << index;
+        if (old != EMPTY) {
+            _hash ^= pieceKey(old, index);
+            if (old != SPEAR) {
+                removeQueen(old, index);
+            }
+            for (int k = 0; k < _bits.length; k += 2) {
+                _bits[k + word] &= ~bit;
+            }
+            updateMobility(index, 1);
+        }
+        if (p != EMPTY) {
+            _hash ^= pieceKey(p, index);
+            _bits[setOf(p) + word] |= bit;
+            _bits[OCCUPIED_SET + word] |= bit;
+            updateMobility(index, -1);
+            if (p != SPEAR) {
+                addQueen(p, index);
+            }
+        }
+    }
+
+    /**
+     * Add the amazon of color P on the square whose index is INDEX to
+     * the list of amazons, with its mobility.
+     */
+    private void addQueen(Piece p, int index) {
+        int side = setOf(p) / 2;
+        int moves = 0;
+        for (int dir = 0; dir < 8; dir += 1) {
+            moves += run(index, dir, nearest(index, dir));
+        }
+        _mobility[index] = moves;
+        _sideMobility[side] += moves;
+        _queenSlot[index] = _queenCount[side];
+        _queens[side][_queenCount[side]] = index;
+        _queenCount[side] += 1;
+    }
+
+    /**
+     * Remove the amazon of color P on the square whose index is INDEX
+     * from the list of amazons.
+     */
+    private void removeQueen(Piece p, int index) {
+        int side = setOf(p) / 2;
+        _sideMobility[side] -= _mobility[index];
+        _mobility[index] = 0;
+        _queenCount[side] -= 1;
+        int last = _queens[side][_queenCount[side]];
+        _queens[side][_queenSlot[index]] = last;
+        _queenSlot[last] = _queenSlot[index];
+    }
+
+    /**
+     * Adjust the mobilities of the amazons whose lines pass through the
+     * square whose index is INDEX, which has just become empty (SIGN =
+     * 1) or is about to become occupied (SIGN = -1).  The amazon nearest
+     * INDEX in each direction gains or loses INDEX and the run of empty
+     * squares beyond it.  No other amazon is affected.
+     */
+    private void updateMobility(int index, int sign) {
+        for (int dir = 0; dir < 4; dir += 1) {
+            int ahead = nearest(index, dir), behind = nearest(index, dir + 4);
+            if (ahead >= 0 && isQueen(ahead)) {
+                changeMobility(ahead, sign * (1 + run(index, dir + 4, behind)));
+            }
+            if (behind >= 0 && isQueen(behind)) {
+                changeMobility(behind, sign * (1 + run(index, dir, ahead)));
+            }
+        }
+    }
+
+    /**
+     * Return true iff the square whose index is INDEX holds an amazon.
+     */
+    private boolean isQueen(int index) {
+        return ((_bits[WHITE_SET + (index >>> WORD_SHIFT)]
+                 | _bits[BLACK_SET + (index >>> WORD_SHIFT)])
+                & (1L << index)) != 0;
+    }
+
+    /**
+     * Add CHANGE to the mobility of the amazon on the square whose index
+     * is INDEX.
+     */
+    private void changeMobility(int index, int change) {
+        _mobility[index] += change;
+        _sideMobility[get(index) == WHITE ? 0 : 1] += change;
+    }
+
+    /**
+     * Return the index of the occupied square nearest to the square
+     * whose index is INDEX in direction DIR (as for Square.queenMove),
+     * or -1 if there is none.
+     */
+    private int nearest(int index, int dir) {
+        long lo = _bits[OCCUPIED_SET] & RAY_SETS[index][dir][0],
+            hi = _bits[OCCUPIED_SET + 1] & RAY_SETS[index][dir][1];
+        if (dir < 3 || dir == 7) {
+            if (lo != 0) {
+                return Long.numberOfTrailingZeros(lo);
+            } else if (hi != 0) {
+                return Long.SIZE + Long.numberOfTrailingZeros(hi);
+            }
+        } else {
+            if (hi != 0) {
+                return 2 * Long.SIZE - 1 - Long.numberOfLeadingZeros(hi);
+            } else if (lo != 0) {
+                return Long.SIZE - 1 - Long.numberOfLeadingZeros(lo);
             }
-            ret += _pieces[y * 10 + SIZE - 1].toString() + "\n";
         }
-        return ret;
+        return -1;
+    }
+
+    /**
+     * Return the number of empty squares next to the square whose index
+     * is INDEX in direction DIR, given that the nearest occupied square
+     * in that direction is BLOCKER (-1 for none).
+     */
+    private static int run(int index, int dir, int blocker) {
+        if (blocker < 0) {
+            return Square.ray(index, dir).length;
+        }
+        return Math.abs(blocker - index) / STEPS[dir & 3] - 1;
+    }
+
+    /**
+     * Return the offset in _bits of the set of squares holding P, which
+     * must be WHITE, BLACK, or SPEAR.
+     */
+    private static int setOf(Piece p) {
+        switch (p) {
+        case WHITE:
+            return WHITE_SET;
+        case BLACK:
+            return BLACK_SET;
+        default:
+            return SPEAR_SET;
+        }
     }
 
+    /**
+     * Seed for the Zobrist keys, fixed so that keys (and files keyed by
+     * them) are the same in every run.
+     */
+    private static final long ZOBRIST_SEED = 0x5DEECE66DL;
+
+    /**
+     * Zobrist keys: PIECE_KEYS[setOf(p) / 2][i] is the key of piece p on
+     * square i.
+     */
+    private static final long[][] PIECE_KEYS = new long[3][SIZE * SIZE];
+
+    /**
+     * The Zobrist key of having Black to move.
+     */
+    private static final long BLACK_TO_MOVE_KEY;
+
+    /**
+     * Zobrist keys: PENDING_SPEAR_KEYS[i] is the key of having moved an
+     * amazon to square i without yet throwing its spear.
+     */
+    private static final long[] PENDING_SPEAR_KEYS = new long[SIZE * SIZE];
+
+    static {
+        Random keys = new Random(ZOBRIST_SEED);
+        for (long[] row : PIECE_KEYS) {
+            for (int index = 0; index < row.length; index += 1) {
+                row[index] = keys.nextLong();
+            }
+        }
+        BLACK_TO_MOVE_KEY = keys.nextLong();
+        for (int index = 0; index < PENDING_SPEAR_KEYS.length; index += 1) {
+            PENDING_SPEAR_KEYS[index] = keys.nextLong();
+        }
+    }
+
+    /**
+     * Square indices of the white and black amazons in the initial
+     * position.
+     */
+    private static final int[]
+        INITIAL_WHITE = { 3, 6, 30, 39 },
+        INITIAL_BLACK = { 60, 69, 93, 96 };
+
+    /**
+     * Shift that converts a square index to the word of a set holding
+     * it.
+     */
+    private static final int WORD_SHIFT = 6;
+
+    /**
+     * The distance between the indices of adjacent squares in the
+     * directions north, northeast, east, and southeast (and their
+     * opposites).
+     */
+    private static final int[] STEPS = { SIZE, SIZE + 1, 1, SIZE - 1 };
+
+    /**
+     * RAY_SETS[i][d] is the set (two words, as for _bits) of the squares
+     * of Square.ray(i, d).
+     */
+    private static final long[][][] RAY_SETS = new long[SIZE * SIZE][8][2];
+
+    static {
+        for (int index = 0; index < SIZE * SIZE; index += 1) {
+            for (int dir = 0; dir < 8; dir += 1) {
+                for (int sq : Square.ray(index, dir)) {
+                    RAY_SETS[index][dir][sq >>> WORD_SHIFT] |= 1L << sq;
+                }
+            }
+        }
+    }
+
+    /**
+     * Offsets in _bits of the sets of white amazons, black amazons,
+     * spears, and occupied squares.  Each set is two words: bit K of the
+     * first word stands for square K, and bit K of the second for square
+     * K + 64.
+     */
+    private static final int WHITE_SET = 0, BLACK_SET = 2, SPEAR_SET = 4,
+        OCCUPIED_SET = 6;
+
     /**
      * An empty iterator for initialization.
      */
@@ -496,37 +1024,89 @@ class Board {
      */
     private Piece _turn;
     /**
-     * Cached value of winner on this board, or EMPTY if it has not been
-     * computed.
+     * Cached value of winner on this board, valid iff _winnerKnown.
      */
     private Piece _winner;
 
+    /**
+     * True iff _winner has been computed since the board last changed.
+     */
+    private boolean _winnerKnown;
+
     /**
      * The amount of moves.
      */
     private int _numMoves;
 
     /**
-     * The board set up with pieces.
+     * The Zobrist key of the current position (see hash()).
      */
-    private Piece[] _pieces;
+    private long _hash;
+
+    /**
+     * The queen move made by moveQueen whose spear has not been thrown,
+     * or 0.
+     */
+    private int _pendingQueenMove;
+
+    /**
+     * The contents of the board as bitboards, indexed by WHITE_SET,
+     * BLACK_SET, SPEAR_SET, and OCCUPIED_SET.
+     */
+    private final long[] _bits = new long[8];
+
+    /**
+     * _queens[s][k], for k < _queenCount[s], are the indices of the
+     * squares holding the amazons of side s (0 for White, 1 for Black).
+     */
+    private final int[][] _queens = new int[2][SIZE * SIZE];
+
+    /**
+     * The number of amazons of each side.
+     */
+    private final int[] _queenCount = new int[2];
+
+    /**
+     * _queenSlot[i] is the position in _queens of the amazon on square
+     * i, if any.
+     */
+    private final int[] _queenSlot = new int[SIZE * SIZE];
+
+    /**
+     * _mobility[i] is the number of squares to which the amazon on
+     * square i can move, or 0 if there is no amazon on square i.
+     */
+    private final int[] _mobility = new int[SIZE * SIZE];
+
+    /**
+     * The total mobility of each side's amazons.
+     */
+    private final int[] _sideMobility = new int[2];
+
 
     /**
      * @return the set up of pieces for the board.
      */
     public Piece[] getPieces() {
-        return _pieces;
+        Piece[] pieces = new Piece[SIZE * SIZE];
+        for (int index = 0; index < pieces.length; index += 1) {
+            pieces[index] = get(index);
+        }
+        return pieces;
     }
 
     /**
-     * The stack to use the method undo.
+     * The moves made so far in packed form, used by undo.  Only the first
+     * _numMoves entries are meaningful.  Every move adds a spear, so no
+     * game has more than SIZE * SIZE moves.
      */
-    private Stack<Move> path;
+    private final int[] _history = new int[SIZE * SIZE];
 
     /**
      * Changes the turn for this board.
      */
     public void changeTurn() {
+        _hash ^= BLACK_TO_MOVE_KEY;
         if (_turn == Piece.WHITE) {
             _turn = Piece.BLACK;
         } else {
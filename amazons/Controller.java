@@ -71,6 +71,8 @@ final class Controller {
                 reportError("Error: %s%n", excp.getMessage());
             }
         }
+        _white.dismiss();
+        _black.dismiss();
         if (_logFile != null) {
             _logFile.close();
         }
@@ -84,6 +86,14 @@ final class Controller {
         return _board;
     }
 
+    /**
+     * Return the player of SIDE in the current game, or null if there
+     * is none.
+     */
+    Player player(Piece side) {
+        return side == WHITE ? _white : side == BLACK ? _black : null;
+    }
+
     /**
      * Return a random integer in the range 0 inclusive to U, exclusive.
      * Available for use by AIs that use random selections in some cases.
@@ -199,8 +209,10 @@ final class Controller {
         attempt = attempt.replaceAll("\\s+", "");
         attempt = attempt.toUpperCase();
         if (attempt.equals("AUTOWHITE")) {
+            _white.dismiss();
             _white = _autoPlayerTemplate.create(WHITE, this);
         } else if (attempt.equals("AUTOBLACK")) {
+            _black.dismiss();
             _black = _autoPlayerTemplate.create(BLACK, this);
         } else {
             _reporter.reportError("Error: Bad command: " + x);
@@ -217,8 +229,10 @@ final class Controller {
         attempt = attempt.replaceAll("\\s+", "");
         attempt = attempt.toUpperCase();
         if (attempt.equals("MANUALWHITE")) {
+            _white.dismiss();
             _white = _manualPlayerTemplate.create(WHITE, this);
         } else if (attempt.equals("MANUALBLACK")) {
+            _black.dismiss();
             _black = _manualPlayerTemplate.create(BLACK, this);
         } else {
             _reporter.reportError("Error: Bad command: " + x);
@@ -234,7 +248,11 @@ final class Controller {
         if (attempt != null) {
             if (_board.isLegal(attempt)) {
                 _board.makeMove(attempt);
+                _white.moveMade(attempt);
+                _black.moveMade(attempt);
                 if (_board.winner() != null) {
+                    _white.dismiss();
+                    _black.dismiss();
                     _winner = _board.winner();
                     if (_winner == WHITE) {
                         _reporter.reportNote("White wins.");
@@ -284,6 +302,8 @@ final class Controller {
      * Command "new".
      */
     private void doNew(Matcher unused) {
+        _white.dismiss();
+        _black.dismiss();
         _board.init();
         _winner = null;
     }
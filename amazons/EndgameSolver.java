@@ -0,0 +1,455 @@
+package amazons;
+
+import static amazons.Piece.*;
+
+/** Exact play for positions that have split into sealed regions.
+ *
+ *  A region is a maximal set of squares, connected by king moves, that
+ *  are empty or hold amazons and that includes at least one amazon.
+ *  Amazons never leave their regions, and nothing done in one region
+ *  affects another.  Once every region that has an empty square holds
+ *  amazons of only one color, the players no longer interact: each
+ *  simply makes as many moves as it can in its own regions, and the side
+ *  to move wins iff it can make more moves than its opponent.  The
+ *  solver finds the greatest number of moves that can be made in each
+ *  region by depth-first search, treating the parts into which a move
+ *  splits a region as regions of their own whose counts add, and
+ *  stopping as soon as it finds a way to fill every empty square.  The
+ *  search is exponential in the worst case, so it gives up after a
+ *  limited number of positions.
+ *
+ *  Most regions, once walled off, hold a single amazon, and the same
+ *  small regions turn up again and again, both within one search and
+ *  from one move to the next.  The value and best first move of each
+ *  region of at most MEMO_MAX_EMPTIES empty squares holding one amazon
+ *  are therefore remembered in a RegionTable, keyed by the set of the
+ *  region's empty squares and the amazon's square, which determine
+ *  them.  Regions small enough to be in a Tablebase, if there is one,
+ *  are looked up there instead.  The Tablebase also holds the values of
+ *  small regions shared by one amazon of each color, so that a board
+ *  with one of those and single-colored regions otherwise can be solved
+ *  as well.
+ *  @author John Schulz
+ */
+final class EndgameSolver {
+
+    /** The largest number of empty squares in a region whose value is
+     *  remembered. */
+    static final int MEMO_MAX_EMPTIES = 25;
+
+    /** A solver that gives up after visiting NODELIMIT positions and
+     *  remembers the values of regions in MEMOMEGABYTES megabytes. */
+    EndgameSolver(long nodeLimit, int memoMegabytes) {
+        _nodeLimit = nodeLimit;
+        _memo = new RegionTable(memoMegabytes);
+    }
+
+    /** Find the regions of BOARD, returning true iff each of them that
+     *  has an empty square holds amazons of only one color. */
+    boolean analyze(Board board) {
+        _regions = 0;
+        _stamp += 1;
+        int top = 0;
+        boolean separated = true;
+        for (int sq = 0; sq < SQUARES; sq += 1) {
+            Piece p = board.get(sq);
+            if ((p == WHITE || p == BLACK) && _seen[sq] != _stamp) {
+                int empties = fill(board, sq, top);
+                int count = _found;
+                int whites = 0;
+                for (int i = top; i < top + count; i += 1) {
+                    if (board.get(_amazons[i]) == WHITE) {
+                        whites += 1;
+                    }
+                }
+                _regionStart[_regions] = top;
+                _regionAmazons[_regions] = count;
+                _regionEmpties[_regions] = empties;
+                _regionLo[_regions] = _emptyLo;
+                _regionHi[_regions] = _emptyHi;
+                _regionColor[_regions] = whites == count ? WHITE
+                    : whites == 0 ? BLACK : EMPTY;
+                separated &= _regionColor[_regions] != EMPTY || empties == 0;
+                _regions += 1;
+                top += count;
+            }
+        }
+        _top = top;
+        return separated;
+    }
+
+    /** Return the number of regions found by the last analyze. */
+    int regions() {
+        return _regions;
+    }
+
+    /** Return the number of empty squares in region R. */
+    int empties(int r) {
+        return _regionEmpties[r];
+    }
+
+    /** Return the number of amazons in region R. */
+    int amazons(int r) {
+        return _regionAmazons[r];
+    }
+
+    /** Return the color of the amazons in region R, or EMPTY if it holds
+     *  amazons of both colors. */
+    Piece color(int r) {
+        return _regionColor[r];
+    }
+
+    /** Return a best move (packed) for the side to move on BOARD if its
+     *  regions are all single-colored (see analyze), or all but one that
+     *  is in my Tablebase, and the solver finishes, or 0 otherwise.  The
+     *  move is the first of a longest sequence of moves in one of the
+     *  side's regions, or the best move in the shared region if moving
+     *  there is better.  Also gives up, if CLOCK is not null, when more
+     *  than TIMEFRACTION of the time it allots to the current move has
+     *  been used. */
+    int solve(Board board, TimeManager clock, double timeFraction) {
+        _nodes = 0;
+        _solved = false;
+        if (board.winner() != null) {
+            return 0;
+        }
+        Piece side = board.turn();
+        int fight = -1;
+        long value = 0;
+        if (!analyze(board)) {
+            fight = fight(board);
+            if (fight < 0) {
+                return 0;
+            }
+            int a = _amazons[_regionStart[fight]],
+                b = _amazons[_regionStart[fight] + 1];
+            value = board.get(a) == WHITE
+                ? _tablebase.probePair(_regionLo[fight], _regionHi[fight],
+                                       a, b, side)
+                : _tablebase.probePair(_regionLo[fight], _regionHi[fight],
+                                       b, a, side);
+            if (value == Tablebase.MISSING) {
+                return 0;
+            }
+        }
+        _clock = clock;
+        _timeFraction = timeFraction;
+        _aborted = false;
+        _board.copy(board);
+        int mine = 0, theirs = 0, best = 0;
+        for (int r = 0; r < _regions; r += 1) {
+            if (r == fight) {
+                continue;
+            }
+            int moves = maxMoves(_regionStart[r], _regionAmazons[r],
+                                 _regionEmpties[r], _regionLo[r],
+                                 _regionHi[r], 0);
+            if (_aborted) {
+                return 0;
+            }
+            if (_regionColor[r] == side) {
+                mine += moves;
+                if (best == 0 && moves > 0) {
+                    best = _rootMove;
+                }
+            } else {
+                theirs += moves;
+            }
+        }
+        _margin = mine - theirs;
+        if (fight >= 0) {
+            _margin -= (int) (value >> Integer.SIZE) - 1;
+            if ((int) value != 0) {
+                best = (int) value;
+            } else if (best == 0) {
+                int a = _amazons[_regionStart[fight]];
+                int from = board.get(a) == side
+                    ? a : _amazons[_regionStart[fight] + 1];
+                _board.legalMoves(from, _moves, 0);
+                best = _moves[0];
+            }
+        }
+        _solved = true;
+        return best;
+    }
+
+    /** Return the region found by the last analyze of BOARD that holds
+     *  amazons of both colors and an empty square, if there is only one,
+     *  it holds one amazon of each color, and it might be in my
+     *  Tablebase.  Otherwise, return -1. */
+    private int fight(Board board) {
+        int result = -1;
+        for (int r = 0; r < _regions; r += 1) {
+            if (_regionColor[r] == EMPTY && _regionEmpties[r] > 0) {
+                if (result >= 0) {
+                    return -1;
+                }
+                result = r;
+            }
+        }
+        if (result < 0 || _tablebase == null
+            || _regionAmazons[result] != 2
+            || _regionEmpties[result] + 2 > _tablebase.pairSquares()) {
+            return -1;
+        }
+        return result;
+    }
+
+    /** Look up the values of small regions in TABLEBASE, if it is not
+     *  null. */
+    void setTablebase(Tablebase tablebase) {
+        _tablebase = tablebase;
+    }
+
+    /** Return the value of the region of BOARD that contains the amazon
+     *  on the square whose index is AMAZON, whose other amazons, if any,
+     *  must be the same color, ignoring the rest of the board and the
+     *  clock, which assumes that the node limit is not reached.  The
+     *  number of moves that can be made in it is in the high word of the
+     *  result, and the first move of a longest sequence (0 if there is
+     *  none) in the low word. */
+    long regionValue(Board board, int amazon) {
+        _stamp += 1;
+        _top = 0;
+        int empties = fill(board, amazon, 0);
+        _top = _found;
+        _board.copy(board);
+        _clock = null;
+        _aborted = false;
+        _nodes = 0;
+        int moves = maxMoves(0, _found, empties, _emptyLo, _emptyHi, 0);
+        return (long) moves << Integer.SIZE | _rootMove;
+    }
+
+    /** Return true iff the last solve finished. */
+    boolean solved() {
+        return _solved;
+    }
+
+    /** Return the number of moves the side to move could make, less the
+     *  number its opponent could make, in the position of the last
+     *  solve, if it finished, not counting a region shared by one amazon
+     *  of each color.  If there is such a region, subtract one less than
+     *  the lead the side to move needs to win it (see Tablebase).  The
+     *  side to move wins iff this is positive. */
+    int margin() {
+        return _margin;
+    }
+
+    /** Return the number of positions visited by the last solve. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Return the table of remembered region values. */
+    RegionTable memo() {
+        return _memo;
+    }
+
+    /** Return the greatest number of moves that the COUNT amazons on the
+     *  squares _amazons[START .. START+COUNT-1], which form a region of
+     *  _board whose EMPTIES empty squares are the set LO, HI, can make
+     *  there.  LEVEL is the number of moves made since the start of
+     *  solve.  At level 0, sets _rootMove to the first move of a longest
+     *  sequence. */
+    private int maxMoves(int start, int count, int empties, long lo,
+                         long hi, int level) {
+        _nodes += 1;
+        if (_nodes > _nodeLimit
+            || (_nodes & CLOCK_CHECK_MASK) == 0 && _clock != null
+            && _clock.fractionUsed() > _timeFraction) {
+            _aborted = true;
+        }
+        if (_aborted || empties == 0) {
+            return 0;
+        }
+        long key = 0;
+        if (count == 1 && empties <= MEMO_MAX_EMPTIES) {
+            key = hi | (long) (_amazons[start] + 1) << AMAZON_SHIFT;
+            long known = _memo.get(lo, key);
+            if (known == RegionTable.MISSING && _tablebase != null) {
+                known = _tablebase.probe(lo, hi, _amazons[start]);
+            }
+            if (known != RegionTable.MISSING) {
+                if (level == 0) {
+                    _rootMove = (int) known;
+                }
+                return (int) (known >>> Integer.SIZE);
+            }
+        }
+        int best = 0, bestMove = 0;
+        int base = level * MAX_AMAZON_MOVES;
+        for (int a = start; a < start + count && best < empties; a += 1) {
+            int from = _amazons[a];
+            int n = _board.legalMoves(from, _moves, base);
+            for (int i = base; i < n && best < empties; i += 1) {
+                int move = _moves[i];
+                _board.makeMove(move);
+                _amazons[a] = Move.toIndex(move);
+                int value = 1 + split(start, count, level + 1);
+                _amazons[a] = from;
+                _board.undo();
+                if (_aborted) {
+                    return 0;
+                }
+                if (value > best) {
+                    best = value;
+                    bestMove = move;
+                }
+            }
+        }
+        if (level == 0) {
+            _rootMove = bestMove;
+        }
+        if (key != 0) {
+            _memo.put(lo, key, (long) best << Integer.SIZE | bestMove);
+        }
+        return best;
+    }
+
+    /** Return the greatest number of moves that the COUNT amazons on the
+     *  squares _amazons[START .. START+COUNT-1] can make, given that
+     *  they are all in one region, on _board, or in several into which
+     *  it has split.  LEVEL is as for maxMoves. */
+    private int split(int start, int count, int level) {
+        _stamp += 1;
+        int base = _top, parts = 0;
+        int info = level * 2 * SQUARES;
+        for (int a = start; a < start + count; a += 1) {
+            if (_seen[_amazons[a]] != _stamp) {
+                _parts[info + 2 * parts] = fill(_board, _amazons[a], _top);
+                _parts[info + 2 * parts + 1] = _found;
+                _partSets[info + 2 * parts] = _emptyLo;
+                _partSets[info + 2 * parts + 1] = _emptyHi;
+                _top += _found;
+                parts += 1;
+            }
+        }
+        int total = 0;
+        for (int p = 0, top = base; p < parts && !_aborted; p += 1) {
+            int found = _parts[info + 2 * p + 1];
+            total += maxMoves(top, found, _parts[info + 2 * p],
+                              _partSets[info + 2 * p],
+                              _partSets[info + 2 * p + 1], level);
+            top += found;
+        }
+        _top = base;
+        return total;
+    }
+
+    /** Mark with _stamp the squares of the region of BOARD that contains
+     *  the amazon on square SEED, append the squares of its amazons to
+     *  _amazons starting at _amazons[TOP], and set _found to their
+     *  number, and _emptyLo and _emptyHi to the two words (as in
+     *  Board) of the set of its empty squares.  Return the number of
+     *  empty squares in the region. */
+    private int fill(Board board, int seed, int top) {
+        int head = 0, tail = 1, empties = 0;
+        _emptyLo = _emptyHi = 0;
+        _queue[0] = seed;
+        _seen[seed] = _stamp;
+        _found = 0;
+        while (head < tail) {
+            int sq = _queue[head];
+            head += 1;
+            if (board.isEmpty(sq)) {
+                empties += 1;
+                if (sq < Long.SIZE) {
+                    _emptyLo |= 1L << sq;
+                } else {
+                    _emptyHi |= 1L << (sq - Long.SIZE);
+                }
+            } else {
+                _amazons[top + _found] = sq;
+                _found += 1;
+            }
+            for (int dir = 0; dir < 8; dir += 1) {
+                int[] ray = Square.ray(sq, dir);
+                if (ray.length > 0) {
+                    int next = ray[0];
+                    if (_seen[next] != _stamp && board.get(next) != SPEAR) {
+                        _seen[next] = _stamp;
+                        _queue[tail] = next;
+                        tail += 1;
+                    }
+                }
+            }
+        }
+        return empties;
+    }
+
+    /** The number of squares. */
+    private static final int SQUARES = Board.SIZE * Board.SIZE;
+
+    /** The most legal moves one amazon can have. */
+    private static final int MAX_AMAZON_MOVES = 35 * 35;
+
+    /** The position in the second word of a key in _memo of the square
+     *  of the region's amazon, plus one. */
+    private static final int AMAZON_SHIFT = 40;
+
+    /** The clock is checked once every CLOCK_CHECK_MASK + 1 nodes. */
+    private static final int CLOCK_CHECK_MASK = (1 << 10) - 1;
+
+    /** Positions visited before giving up. */
+    private final long _nodeLimit;
+    /** The position being solved. */
+    private final Board _board = new Board();
+    /** Squares of amazons: those of the regions found by analyze,
+     *  followed by those of the parts of regions being searched, in a
+     *  stack that grows with the search. */
+    private final int[] _amazons = new int[SQUARES * SQUARES];
+    /** Move buffers: moves at level k start at k * MAX_AMAZON_MOVES. */
+    private final int[] _moves = new int[SQUARES * MAX_AMAZON_MOVES];
+    /** The number of empty squares and of amazons in each part found by
+     *  split at level k, starting at k * 2 * SQUARES. */
+    private final int[] _parts = new int[SQUARES * 2 * SQUARES];
+    /** The two words of the set of empty squares of each part found by
+     *  split, arranged like _parts. */
+    private final long[] _partSets = new long[SQUARES * 2 * SQUARES];
+    /** The first amazon in _amazons, number of amazons, number of empty
+     *  squares, and color (see color) of each region found by analyze. */
+    private final int[] _regionStart = new int[SQUARES],
+        _regionAmazons = new int[SQUARES], _regionEmpties = new int[SQUARES];
+    /** The two words of the set of empty squares of each region found by
+     *  analyze. */
+    private final long[] _regionLo = new long[SQUARES],
+        _regionHi = new long[SQUARES];
+    /** Colors of the regions found by analyze. */
+    private final Piece[] _regionColor = new Piece[SQUARES];
+    /** Breadth-first search queue for fill. */
+    private final int[] _queue = new int[SQUARES];
+    /** _seen[s] == _stamp iff square s has been reached by the current
+     *  flood fill. */
+    private final int[] _seen = new int[SQUARES];
+    /** The mark of the current flood fill. */
+    private int _stamp;
+    /** The end of the stack in _amazons. */
+    private int _top;
+    /** The number of amazons found by the last fill. */
+    private int _found;
+    /** The set of empty squares found by the last fill. */
+    private long _emptyLo, _emptyHi;
+    /** Values and best first moves of regions with one amazon. */
+    private final RegionTable _memo;
+    /** Values of small regions with one amazon, or with one of each
+     *  color, or null. */
+    private Tablebase _tablebase;
+    /** The number of regions found by analyze. */
+    private int _regions;
+    /** The clock and the fraction of the move's time after which the
+     *  current solve gives up, or null for no limit. */
+    private TimeManager _clock;
+    /** See _clock. */
+    private double _timeFraction;
+    /** True iff the current solve has given up. */
+    private boolean _aborted;
+    /** True iff the last solve finished. */
+    private boolean _solved;
+    /** Positions visited by the current solve. */
+    private long _nodes;
+    /** The first move of the longest sequence found at level 0. */
+    private int _rootMove;
+    /** See margin. */
+    private int _margin;
+}
@@ -0,0 +1,96 @@
+package amazons;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A direct-mapped cache of static evaluations, indexed by the Zobrist
+ *  keys of positions (Board.hash()).  Each slot holds a score and that
+ *  score XORed with the position's key, so that, as in
+ *  TranspositionTable, several search threads may share the cache
+ *  without locks: a slot torn by a racing write fails the check and
+ *  reads as a miss.  A new score always replaces the old one.
+ *  @author John Schulz
+ */
+final class EvalCache {
+
+    /** The result of probe for a position that is not in the cache. */
+    static final int MISSING = Integer.MIN_VALUE;
+
+    /** Bytes used by one slot. */
+    static final int SLOT_BYTES = 2 * Long.BYTES;
+
+    /** A cache using at most MEGABYTES megabytes (at least one slot). The
+     *  number of slots is rounded down to a power of two. */
+    EvalCache(int megabytes) {
+        long slots = Math.max(1, ((long) megabytes << 20) / SLOT_BYTES);
+        slots = Math.min(Long.highestOneBit(slots), MAX_SLOTS);
+        _slots = new long[(int) (2 * slots)];
+        _mask = (int) slots - 1;
+    }
+
+    /** Return the score stored for KEY, or MISSING if there is none. */
+    int probe(long key) {
+        int slot = slot(key);
+        long score = _slots[slot], check = _slots[slot + 1];
+        if ((score ^ check) == key && check != 0) {
+            _hits.increment();
+            return (int) score;
+        }
+        _misses.increment();
+        return MISSING;
+    }
+
+    /** Record SCORE as the static value of the position with key KEY. */
+    void store(long key, int score) {
+        int slot = slot(key);
+        _slots[slot] = score;
+        _slots[slot + 1] = score ^ key;
+    }
+
+    /** Remove all entries and reset the counters. */
+    void clear() {
+        Arrays.fill(_slots, 0L);
+        _hits.reset();
+        _misses.reset();
+    }
+
+    /** Return the number of slots. */
+    int size() {
+        return _mask + 1;
+    }
+
+    /** Return the number of probes that found their position. */
+    long hits() {
+        return _hits.sum();
+    }
+
+    /** Return the number of probes that did not. */
+    long misses() {
+        return _misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        long hits = hits(), probes = hits + misses();
+        return String.format("eval cache %dMB: %d probes, %.1f%% hits",
+                             ((long) size() * SLOT_BYTES) >> 20, probes,
+                             probes == 0 ? 0.0 : 100.0 * hits / probes);
+    }
+
+    /** Return the index in _slots of the slot for KEY. */
+    private int slot(long key) {
+        return ((int) key & _mask) << 1;
+    }
+
+    /** The largest number of slots (limited by the maximum array
+     *  length). */
+    private static final long MAX_SLOTS = 1L << 29;
+
+    /** Pairs of score and score ^ key words, one pair per slot. */
+    private final long[] _slots;
+    /** Mask that reduces a key to a slot number. */
+    private final int _mask;
+    /** Probe counters. */
+    private final LongAdder _hits = new LongAdder(),
+        _misses = new LongAdder();
+}
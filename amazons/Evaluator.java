@@ -0,0 +1,187 @@
+package amazons;
+
+import static amazons.Piece.*;
+
+/** The static evaluation used by the searches: territory and mobility.
+ *  Each side's amazons are the sources of two multi-source breadth-first
+ *  searches over the empty squares, one counting queen moves and one
+ *  counting king moves (single steps).  An empty square belongs to the
+ *  side that reaches it in fewer moves, or, on a tie, to the side to
+ *  move.  The value combines the difference in queen-distance territory,
+ *  king-distance territory (which matters more as the board fills and
+ *  regions close), and the number of empty squares the amazons can move
+ *  to.
+ *
+ *  The searches work on sets of squares represented as bitboards, two
+ *  words each as in Board, and expand both sides' frontiers one move at
+ *  a time in step, so that the owner of each square is known as soon as
+ *  it is reached and no distances need be stored.  The mobility term
+ *  is maintained by Board.  An Evaluator keeps its working sets between
+ *  calls and allocates nothing, so each search thread should have its
+ *  own.
+ *  @author John Schulz
+ */
+final class Evaluator {
+
+    /** An Evaluator that gives squares both sides reach at once to the
+     *  side to move. */
+    Evaluator() {
+        this(true);
+    }
+
+    /** An Evaluator that gives squares both sides reach at once to the
+     *  side to move iff TEMPO, and otherwise to neither.  The bonus
+     *  suits a search that compares positions with the same side to
+     *  move, but swamps the rest of the value when the two are mixed,
+     *  as at the ends of playouts. */
+    Evaluator(boolean tempo) {
+        _tempo = tempo;
+    }
+
+    /** Return the value of BOARD: positive if good for White, negative
+     *  if good for Black, and +/- Searcher.WINNING_VALUE if one of them
+     *  has won. */
+    int evaluate(Board board) {
+        Piece winner = board.winner();
+        if (winner == WHITE) {
+            return Searcher.WINNING_VALUE;
+        } else if (winner == BLACK) {
+            return -Searcher.WINNING_VALUE;
+        }
+        _emptyLo = ~board.bits(EMPTY, 0);
+        _emptyHi = ~board.bits(EMPTY, 1) & HI_SQUARES;
+        int tie = !_tempo ? 0 : board.turn() == WHITE ? 1 : -1;
+        int queenTerritory = territory(board, true, tie);
+        int kingTerritory = territory(board, false, tie);
+        int mobility = board.mobility(WHITE) - board.mobility(BLACK);
+        return QUEEN_WEIGHT * queenTerritory + KING_WEIGHT * kingTerritory
+            + MOBILITY_WEIGHT * mobility;
+    }
+
+    /** Return the territory difference on BOARD, measuring distances in
+     *  queen moves if QUEENMOVES and otherwise in king moves.  Each empty
+     *  square contributes 2 or -2 if White or Black reaches it first,
+     *  TIE (1 or -1 to give it to White or Black, or 0) if they reach it
+     *  at once, and 0 if neither does. */
+    private int territory(Board board, boolean queenMoves, int tie) {
+        long whiteLo = board.bits(WHITE, 0), whiteHi = board.bits(WHITE, 1),
+            blackLo = board.bits(BLACK, 0), blackHi = board.bits(BLACK, 1);
+        long whiteFrontLo = whiteLo, whiteFrontHi = whiteHi,
+            blackFrontLo = blackLo, blackFrontHi = blackHi;
+        int white = 0, black = 0, ties = 0;
+        while ((whiteFrontLo | whiteFrontHi | blackFrontLo | blackFrontHi)
+               != 0) {
+            expand(whiteFrontLo, whiteFrontHi, queenMoves);
+            long newWhiteLo = _lo & ~whiteLo, newWhiteHi = _hi & ~whiteHi;
+            expand(blackFrontLo, blackFrontHi, queenMoves);
+            long newBlackLo = _lo & ~blackLo, newBlackHi = _hi & ~blackHi;
+            white += Long.bitCount(newWhiteLo & ~blackLo & ~newBlackLo)
+                + Long.bitCount(newWhiteHi & ~blackHi & ~newBlackHi);
+            black += Long.bitCount(newBlackLo & ~whiteLo & ~newWhiteLo)
+                + Long.bitCount(newBlackHi & ~whiteHi & ~newWhiteHi);
+            ties += Long.bitCount(newWhiteLo & newBlackLo)
+                + Long.bitCount(newWhiteHi & newBlackHi);
+            whiteLo |= newWhiteLo;
+            whiteHi |= newWhiteHi;
+            blackLo |= newBlackLo;
+            blackHi |= newBlackHi;
+            whiteFrontLo = newWhiteLo;
+            whiteFrontHi = newWhiteHi;
+            blackFrontLo = newBlackLo;
+            blackFrontHi = newBlackHi;
+        }
+        return 2 * (white - black) + tie * ties;
+    }
+
+    /** Set _lo and _hi to the set of empty squares reachable in one queen
+     *  move (if QUEENMOVES) or king move from the squares in the set
+     *  LO, HI. */
+    private void expand(long lo, long hi, boolean queenMoves) {
+        long resultLo = 0, resultHi = 0;
+        for (int dir = 0; dir < DELTAS.length; dir += 1) {
+            int delta = DELTAS[dir];
+            long maskLo = _emptyLo & MASKS_LO[dir],
+                maskHi = _emptyHi & MASKS_HI[dir];
+            long rayLo = lo, rayHi = hi;
+            do {
+                long nextLo = shiftLo(rayLo, rayHi, delta) & maskLo;
+                rayHi = shiftHi(rayLo, rayHi, delta) & maskHi;
+                rayLo = nextLo;
+                resultLo |= rayLo;
+                resultHi |= rayHi;
+            } while (queenMoves && (rayLo | rayHi) != 0);
+        }
+        _lo = resultLo;
+        _hi = resultHi;
+    }
+
+    /** Return word 0 of the set LO, HI with every square moved DELTA
+     *  places (in square indices). */
+    private static long shiftLo(long lo, long hi, int delta) {
+        if (delta > 0) {
+            return lo << delta;
+        } else {
+            return (lo >>> -delta) | (hi << (Long.SIZE + delta));
+        }
+    }
+
+    /** Return word 1 of the set LO, HI with every square moved DELTA
+     *  places (in square indices). */
+    private static long shiftHi(long lo, long hi, int delta) {
+        if (delta > 0) {
+            return (hi << delta) | (lo >>> (Long.SIZE - delta));
+        } else {
+            return hi >>> -delta;
+        }
+    }
+
+    /** Weights of queen-distance territory, king-distance territory, and
+     *  mobility in the value. */
+    private static final int QUEEN_WEIGHT = 3, KING_WEIGHT = 1,
+        MOBILITY_WEIGHT = 1;
+
+    /** The squares in word 1 of a set. */
+    private static final long HI_SQUARES =
+        (1L << (Board.SIZE * Board.SIZE - Long.SIZE)) - 1;
+
+    /** The changes in column and in square index of a step north,
+     *  northeast, east, southeast, south, southwest, west, and
+     *  northwest. */
+    private static final int[]
+        DCOLS = { 0, 1, 1, 1, 0, -1, -1, -1 },
+        DELTAS = {
+            Board.SIZE, Board.SIZE + 1, 1, 1 - Board.SIZE,
+            -Board.SIZE, -Board.SIZE - 1, -1, Board.SIZE - 1
+        };
+
+    /** MASKS_LO[d] and MASKS_HI[d] are the two words of the set of
+     *  squares that can be reached by a step in direction d: those not
+     *  on the west edge for steps with an eastward part, and those not on
+     *  the east edge for steps with a westward part. */
+    private static final long[] MASKS_LO = new long[DELTAS.length],
+        MASKS_HI = new long[DELTAS.length];
+
+    static {
+        for (int dir = 0; dir < DELTAS.length; dir += 1) {
+            for (int sq = 0; sq < Board.SIZE * Board.SIZE; sq += 1) {
+                int col = sq % Board.SIZE;
+                if (DCOLS[dir] == 1 && col == 0
+                    || DCOLS[dir] == -1 && col == Board.SIZE - 1) {
+                    continue;
+                }
+                if (sq < Long.SIZE) {
+                    MASKS_LO[dir] |= 1L << sq;
+                } else {
+                    MASKS_HI[dir] |= 1L << (sq - Long.SIZE);
+                }
+            }
+        }
+    }
+
+    /** True iff ties go to the side to move. */
+    private final boolean _tempo;
+    /** The set of empty squares in the position being evaluated. */
+    private long _emptyLo, _emptyHi;
+    /** The result of expand. */
+    private long _lo, _hi;
+}
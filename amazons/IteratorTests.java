@@ -9,6 +9,7 @@ import java.util.Iterator;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -82,6 +83,25 @@ public class IteratorTests {
         assertEquals(2176, numMoves);
     }
 
+    /**
+     * Tests that the packed move generator produces the same moves in
+     * the same order as legalMoves.
+     */
+    @Test
+    public void testPackedLegalMoves() {
+        Board b = new Board();
+        b.makeMove(Move.mv("d1-d7(g7)"));
+        int[] buf = new int[Board.MAX_MOVES];
+        for (Piece side : new Piece[] { Piece.WHITE, Piece.BLACK }) {
+            int n = b.legalMoves(side, buf);
+            Iterator<Move> legalMoves = b.legalMoves(side);
+            for (int i = 0; i < n; i += 1) {
+                assertEquals(legalMoves.next(), Move.mv(buf[i]));
+            }
+            assertFalse(legalMoves.hasNext());
+        }
+        assertEquals(2176, new Board().legalMoves(Piece.WHITE, buf));
+    }
 
     private void buildBoard(Board b, Piece[][] target) {
         for (int col = 0; col < Board.SIZE; col++) {
@@ -0,0 +1,134 @@
+package amazons;
+
+/** A Player that automatically generates moves by Monte Carlo tree
+ *  search (see MonteCarloSearch), an alternative to the alpha-beta
+ *  search of AI.
+ *  @author John Schulz
+ */
+class MCTSPlayer extends Player {
+
+    /** The default size of the search tree, in megabytes. */
+    static final int DEFAULT_TREE_SIZE = 128;
+
+    /** A new MCTSPlayer with no piece or controller (intended to produce
+     *  a template). */
+    MCTSPlayer() {
+        this(null, null);
+    }
+
+    /** A new MCTSPlayer playing PIECE under control of CONTROLLER. */
+    MCTSPlayer(Piece piece, Controller controller) {
+        this(piece, controller, null);
+    }
+
+    /** A new MCTSPlayer playing PIECE under control of CONTROLLER that
+     *  shares its settings and clock with TEMPLATE, if non-null. */
+    private MCTSPlayer(Piece piece, Controller controller,
+                       MCTSPlayer template) {
+        super(piece, controller);
+        if (template != null) {
+            _playoutLimit = template._playoutLimit;
+            _threads = template._threads;
+            _treeSize = template._treeSize;
+            _showStats = template._showStats;
+            _clock = template._clock;
+        }
+    }
+
+    @Override
+    Player create(Piece piece, Controller controller) {
+        return new MCTSPlayer(piece, controller, this);
+    }
+
+    @Override
+    String myMove() {
+        if (_search == null) {
+            _search = new MonteCarloSearch(_threads,
+                                           new NodeArena(_treeSize), _clock);
+            _search.setPlayoutLimit(_playoutLimit);
+        }
+        _clock.startMove(board());
+        Move move = Move.mv(_search.think(board()));
+        _clock.endMove();
+        _controller.reportMove(move);
+        if (_showStats) {
+            reportStats(move);
+        }
+        return move.toString();
+    }
+
+    @Override
+    void moveMade(Move move) {
+        if (_search != null) {
+            _search.advance(move.packed());
+        }
+    }
+
+    /** Have the MCTSPlayers I create make exactly PLAYOUTS playouts per
+     *  move, ignoring the clock, if PLAYOUTS > 0.  Otherwise, they play
+     *  out until their time is up. */
+    void setPlayoutLimit(int playouts) {
+        _playoutLimit = playouts;
+    }
+
+    /** Have the MCTSPlayers I create search with THREADS threads, which
+     *  share one tree. */
+    void setThreads(int threads) {
+        _threads = Math.max(1, threads);
+    }
+
+    /** Give each MCTSPlayer I create a search tree of MEGABYTES
+     *  megabytes. */
+    void setTreeSize(int megabytes) {
+        _treeSize = megabytes;
+    }
+
+    /** Allow the MCTSPlayers I create MOVESECONDS seconds per move and,
+     *  all together, GAMESECONDS seconds per game. */
+    void setTimeLimits(double moveSeconds, double gameSeconds) {
+        _clock = new TimeManager(moveSeconds, gameSeconds);
+    }
+
+    /** Report search statistics on the standard error after each move
+     *  iff SHOW. */
+    void setShowStats(boolean show) {
+        _showStats = show;
+    }
+
+    /** Print statistics about the search that found MOVE on the
+     *  standard error. */
+    private void reportStats(Move move) {
+        long millis = _clock.elapsedMillis();
+        long playouts = _search.playouts();
+        System.err.printf("%s: %d playouts, %d playouts/s, %d threads,"
+                          + " %d nodes, tree depth %d, value %.3f, %d ms%n"
+                          + "  %d CAS retries (%.3f per playout),"
+                          + " %d busy expansions, %d playouts reused%n"
+                          + "  %s%s%n",
+                          move, playouts,
+                          playouts * 1000 / Math.max(1, millis),
+                          _search.threads(), _search.nodes(),
+                          _search.treeDepth(), _search.value(), millis,
+                          _search.casRetries(),
+                          (double) _search.casRetries()
+                          / Math.max(1, playouts),
+                          _search.busyExpansions(), _search.reused(),
+                          _search.arena(),
+                          _search.full() ? " (full)" : "");
+    }
+
+    /** Playouts per search, or 0 for timed searches. */
+    private int _playoutLimit;
+    /** Number of search threads. */
+    private int _threads = 1;
+    /** Size of the search tree, in megabytes. */
+    private int _treeSize = DEFAULT_TREE_SIZE;
+    /** True iff search statistics are reported after each move. */
+    private boolean _showStats;
+    /** Allocates the time for each move. */
+    private TimeManager _clock =
+        new TimeManager(TimeManager.DEFAULT_MOVE_SECONDS,
+                        TimeManager.DEFAULT_GAME_SECONDS);
+    /** My search, or null if not yet created. */
+    private MonteCarloSearch _search;
+}
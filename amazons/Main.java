@@ -5,6 +5,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Paths;
 
 import static amazons.Utils.error;
 
@@ -19,10 +20,28 @@ public class Main {
     public static void main(String... args) {
 
         CommandArgs options =
-            new CommandArgs("--display --log={0,1} --={0,2}", args);
+            new CommandArgs("--display --log={0,1} --hash=(\\d+){0,1}"
+                            + " --evalcache=(\\d+){0,1} --tablebase={0,1}"
+                            + " --book={0,1}"
+                            + " --engine=(alphabeta|mcts){0,1}"
+                            + " --playouts=(\\d+){0,1} --tree=(\\d+){0,1}"
+                            + " --time=(\\d+(\\.\\d*)?/\\d+){0,1}"
+                            + " --threads=(\\d+){0,1}"
+                            + " --parallel=(smp|ybw){0,1}"
+                            + " --depth=(\\d+){0,1}"
+                            + " --split --ponder --stats --={0,2}", args);
         if (!options.ok()) {
             System.err.println("Usage: java amazons.Main [--display]"
-                               + " [--log=FILE] [INPUT [OUTPUT]]");
+                               + " [--log=FILE] [--hash=MB]"
+                               + " [--evalcache=MB] [--tablebase=FILE]"
+                               + " [--book=FILE]"
+                               + " [--engine=alphabeta|mcts]"
+                               + " [--playouts=N] [--tree=MB]"
+                               + " [--time=MOVESECS/GAMESECS]"
+                               + " [--threads=N] [--parallel=smp|ybw]"
+                               + " [--depth=N] [--split] [--ponder]"
+                               + " [--stats]"
+                               + " [INPUT [OUTPUT]]");
             System.exit(1);
         }
 
@@ -83,6 +102,87 @@ public class Main {
             }
         }
 
-        return new Controller(view, log, reporter, manualPlayer, new AI());
+        Player autoPlayer;
+        if (options.contains("--engine")
+            && options.getFirst("--engine").equals("mcts")) {
+            autoPlayer = getMCTSPlayer(options);
+        } else {
+            autoPlayer = getAI(options);
+        }
+        return new Controller(view, log, reporter, manualPlayer,
+                              autoPlayer);
+    }
+
+    /** Return a template for the automated players, configured as
+     *  indicated by OPTIONS. */
+    private static AI getAI(CommandArgs options) {
+        AI ai = new AI();
+        if (options.contains("--hash")) {
+            ai.setHashSize(Integer.parseInt(options.getFirst("--hash")));
+        }
+        if (options.contains("--evalcache")) {
+            ai.setEvalCacheSize(
+                Integer.parseInt(options.getFirst("--evalcache")));
+        }
+        if (options.contains("--tablebase")) {
+            try {
+                ai.setTablebase(Tablebase.open(
+                    Paths.get(options.getFirst("--tablebase"))));
+            } catch (IOException excp) {
+                throw error("Could not open tablebase: %s",
+                            excp.getMessage());
+            }
+        }
+        if (options.contains("--book")) {
+            try {
+                ai.setOpeningBook(OpeningBook.open(
+                    Paths.get(options.getFirst("--book"))));
+            } catch (IOException excp) {
+                throw error("Could not open opening book: %s",
+                            excp.getMessage());
+            }
+        }
+        if (options.contains("--time")) {
+            String[] limits = options.getFirst("--time").split("/");
+            ai.setTimeLimits(Double.parseDouble(limits[0]),
+                             Double.parseDouble(limits[1]));
+        }
+        if (options.contains("--threads")) {
+            ai.setThreads(Integer.parseInt(options.getFirst("--threads")));
+        }
+        if (options.contains("--parallel")) {
+            ai.setYoungBrothers(options.getFirst("--parallel").equals("ybw"));
+        }
+        if (options.contains("--depth")) {
+            ai.setDepthLimit(Integer.parseInt(options.getFirst("--depth")));
+        }
+        ai.setSplitPly(options.contains("--split"));
+        ai.setPonder(options.contains("--ponder"));
+        ai.setShowStats(options.contains("--stats"));
+        return ai;
+    }
+
+    /** Return a template for the Monte Carlo automated players,
+     *  configured as indicated by OPTIONS. */
+    private static MCTSPlayer getMCTSPlayer(CommandArgs options) {
+        MCTSPlayer player = new MCTSPlayer();
+        if (options.contains("--time")) {
+            String[] limits = options.getFirst("--time").split("/");
+            player.setTimeLimits(Double.parseDouble(limits[0]),
+                                 Double.parseDouble(limits[1]));
+        }
+        if (options.contains("--threads")) {
+            player.setThreads(
+                Integer.parseInt(options.getFirst("--threads")));
+        }
+        if (options.contains("--tree")) {
+            player.setTreeSize(Integer.parseInt(options.getFirst("--tree")));
+        }
+        if (options.contains("--playouts")) {
+            player.setPlayoutLimit(
+                Integer.parseInt(options.getFirst("--playouts")));
+        }
+        player.setShowStats(options.contains("--stats"));
+        return player;
     }
 }
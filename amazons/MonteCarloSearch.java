@@ -0,0 +1,606 @@
+package amazons;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static amazons.NodeArena.*;
+import static amazons.Piece.*;
+
+/** A Monte Carlo tree search for the best move from a position, using
+ *  UCT (upper confidence bounds applied to trees).
+ *
+ *  Each iteration descends the tree from the root, at each node
+ *  choosing the child that maximizes its win rate plus an exploration
+ *  bonus that grows for children visited rarely compared with their
+ *  parent; a child not yet visited is always chosen first.  A leaf
+ *  visited EXPAND_VISITS times is expanded, with children for some of
+ *  its legal moves (see below).  From the position reached, a playout
+ *  then makes up to PLAYOUT_PLIES random moves.  If the game is not
+ *  over by then, the winner is taken to be the side the static
+ *  Evaluator favors, which is far more accurate than the random moves
+ *  of a full playout would be, and far cheaper.  The evaluation gives
+ *  squares that both sides reach at once to neither, since otherwise it
+ *  would favor the side to move by more than most of the differences
+ *  between positions.
+ *  Finally, each node on the path counts the visit, and a win if the
+ *  side that made the move leading to it won.  The move chosen at the
+ *  end is the root's most visited child.
+ *
+ *  Most positions have hundreds or thousands of legal moves, nearly all
+ *  bad, so nodes are widened progressively.  The legal moves are ranked
+ *  by a cheap prior: the number of enemy amazons next to the spear,
+ *  counted SPEAR_WEIGHT times, plus the change in the number of empty
+ *  squares next to the amazon moved.  Ties are broken by a hash of the
+ *  move and the position, so the ranking is fixed for each position.
+ *  A node gets children only for its best WIDTH_FACTOR * sqrt(visits)
+ *  moves (but at least MIN_WIDTH), and a chunk more each time its
+ *  visits call for them.  The ranking is generated afresh from the
+ *  board whenever a node widens, so no moves are kept for children not
+ *  yet made, and the moves never given children cost no nodes at all.
+ *
+ *  A random playout move picks one of the queen moves of the side to
+ *  move, and then one of the spear throws from the square the queen
+ *  reaches, so each queen move is equally likely, whatever its number
+ *  of throws.  Playouts work on one board with the packed move
+ *  generators of Board and undo their moves afterwards, so they
+ *  allocate nothing.
+ *
+ *  The tree lives in a NodeArena, allocated once and cleared for each
+ *  search, so that growing it allocates nothing either, and its size
+ *  is fixed in advance.  When the arena is full, leaves are no longer
+ *  expanded, and the rest of the search refines the statistics of the
+ *  tree it has.
+ *
+ *  The tree outlives the search.  The moves actually made, which
+ *  advance reports, move its root down to the subtree for the current
+ *  position, if there is one.  When the next search starts from that
+ *  position, it frees the rest of the tree and continues with that
+ *  subtree, including all the playouts made through it.  When the
+ *  opponent makes the reply the last search expected, those are most
+ *  of the playouts made after its first few moves.
+ *
+ *  With more than one thread, the threads descend one shared tree
+ *  (tree parallelism), each with its own board.  A node's visits and
+ *  wins are packed into one long, so that a thread reads both in one
+ *  step and updates both with one compare-and-set (see NodeArena).  A
+ *  thread passing through a node counts VIRTUAL_LOSS lost visits there
+ *  at once, and replaces them with the real result after its playout,
+ *  so that the others, seeing a worse win rate, tend to choose other
+ *  paths in the meantime.  A leaf is expanded by the one thread that
+ *  claims it with a compare-and-set of its children; the others treat
+ *  it as a leaf until its children are published.  Nothing is locked.
+ *  The number of compare-and-sets that had to be retried, and of
+ *  leaves found being expanded, measure contention.  With one thread,
+ *  a search limited by playouts is reproducible.
+ *  @author John Schulz
+ */
+final class MonteCarloSearch {
+
+    /** A search using THREADS threads that keeps its tree in ARENA and
+     *  stops when CLOCK says that the time allotted to the current move
+     *  is up. */
+    MonteCarloSearch(int threads, NodeArena arena, TimeManager clock) {
+        _arena = arena;
+        _clock = clock;
+        _workers = new Worker[Math.max(1, threads)];
+        for (int i = 0; i < _workers.length; i += 1) {
+            _workers[i] = new Worker(SEED + i);
+        }
+    }
+
+    /** Make exactly PLAYOUTS playouts per search, ignoring the clock, if
+     *  PLAYOUTS > 0 (together with a fresh MonteCarloSearch, this makes
+     *  searches on one thread reproducible); otherwise, play out until
+     *  the time is up. */
+    void setPlayoutLimit(int playouts) {
+        _playoutLimit = playouts;
+    }
+
+    /** Widen nodes progressively iff WIDEN; otherwise, give each node
+     *  expanded one child for every legal move at once. */
+    void setWidening(boolean widen) {
+        _widen = widen;
+    }
+
+    /** Return the best move (packed) from the position on BOARD, which
+     *  must have one, found by searching until the time allotted runs
+     *  out or the playout limit is reached.  BOARD is not changed. */
+    int think(Board board) {
+        if (_root >= 0 && _rootBoard.numMoves() == board.numMoves()
+            && _rootBoard.hash() == board.hash()) {
+            _arena.retain(_root);
+            _root = 0;
+            _reused = visits(_arena.stats(_root));
+        } else {
+            _arena.clear();
+            _root = _arena.allocate(ROOT_MOVE, 1);
+            _reused = 0;
+        }
+        _rootBoard.copy(board);
+        _full = false;
+        for (int i = 0; i < _workers.length; i += 1) {
+            Worker worker = _workers[i];
+            worker.setPosition(board);
+            worker._limit = _playoutLimit / _workers.length
+                + (i < _playoutLimit % _workers.length ? 1 : 0);
+        }
+        if (_arena.children(_root) == UNEXPANDED) {
+            _workers[0].expand(_root);
+        }
+        Thread[] helpers = new Thread[_workers.length - 1];
+        for (int i = 0; i < helpers.length; i += 1) {
+            helpers[i] = new Thread(_workers[i + 1]);
+            helpers[i].setDaemon(true);
+            helpers[i].start();
+        }
+        _workers[0].run();
+        for (Thread helper : helpers) {
+            try {
+                helper.join();
+            } catch (InterruptedException excp) {
+                throw new IllegalStateException("search interrupted");
+            }
+        }
+        long children = _arena.children(_root);
+        if (children == UNEXPANDED) {
+            _value = 0.5;
+            board.legalMoves(board.turn(), _workers[0]._moves);
+            return _workers[0]._moves[0];
+        }
+        int best = firstChild(children);
+        long bestStats = _arena.stats(best);
+        int chunk = firstChild(children);
+        for (int left = childCount(children); left > 0;
+             left -= _arena.chunkSize(chunk), chunk = _arena.nextChunk(chunk)) {
+            for (int child = chunk; child < chunk + _arena.chunkSize(chunk);
+                 child += 1) {
+                long stats = _arena.stats(child);
+                if (visits(stats) > visits(bestStats)
+                    || visits(stats) == visits(bestStats)
+                       && wins(stats) > wins(bestStats)) {
+                    best = child;
+                    bestStats = stats;
+                }
+            }
+        }
+        int visits = visits(bestStats);
+        _value = visits == 0 ? 0.5 : (double) wins(bestStats) / visits;
+        return _arena.move(best);
+    }
+
+    /** Report that MOVE (packed) has been made in the position of the
+     *  root of my tree, making the root the child for that move, or
+     *  discarding the tree if there is none. */
+    void advance(int move) {
+        if (_root < 0) {
+            return;
+        }
+        long children = _arena.children(_root);
+        _root = -1;
+        if (children == UNEXPANDED) {
+            return;
+        }
+        int chunk = firstChild(children);
+        for (int left = childCount(children); left > 0;
+             left -= _arena.chunkSize(chunk), chunk = _arena.nextChunk(chunk)) {
+            for (int child = chunk; child < chunk + _arena.chunkSize(chunk);
+                 child += 1) {
+                if (_arena.move(child) == move) {
+                    _root = child;
+                    _rootBoard.makeMove(move);
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Return the number of playouts that the last search inherited
+     *  from the one before. */
+    long reused() {
+        return _reused;
+    }
+
+    /** Return the number of threads. */
+    int threads() {
+        return _workers.length;
+    }
+
+    /** Return the number of playouts made by the last search. */
+    long playouts() {
+        long total = 0;
+        for (Worker worker : _workers) {
+            total += worker._playouts;
+        }
+        return total;
+    }
+
+    /** Return the number of nodes in the last search's tree. */
+    long nodes() {
+        return _arena.size();
+    }
+
+    /** Return the arena holding my tree. */
+    NodeArena arena() {
+        return _arena;
+    }
+
+    /** Return true iff the last search filled its arena. */
+    boolean full() {
+        return _full;
+    }
+
+    /** Return the greatest depth of a node visited by the last search. */
+    int treeDepth() {
+        int depth = 0;
+        for (Worker worker : _workers) {
+            depth = Math.max(depth, worker._treeDepth);
+        }
+        return depth;
+    }
+
+    /** Return the number of updates of node statistics in the last search
+     *  that were retried because another thread changed the node
+     *  first. */
+    long casRetries() {
+        long total = 0;
+        for (Worker worker : _workers) {
+            total += worker._casRetries;
+        }
+        return total;
+    }
+
+    /** Return the number of times in the last search that a thread
+     *  reached a leaf while another was expanding it. */
+    long busyExpansions() {
+        long total = 0;
+        for (Worker worker : _workers) {
+            total += worker._busyExpansions;
+        }
+        return total;
+    }
+
+    /** Return the fraction of the playouts through the last move chosen
+     *  that were won by the side to move. */
+    double value() {
+        return _value;
+    }
+
+    /** One search thread, with its own board and buffers. */
+    private final class Worker implements Runnable {
+
+        /** A worker whose random choices start from SEED. */
+        Worker(long seed) {
+            _random = new Random(seed);
+        }
+
+        /** Prepare to search the position on BOARD, clearing my
+         *  statistics. */
+        void setPosition(Board board) {
+            _board.copy(board);
+            _playouts = _casRetries = _busyExpansions = 0;
+            _treeDepth = 0;
+        }
+
+        /** Make playouts until my limit, if any, is reached, or else
+         *  until the time is up.  Makes at least one. */
+        @Override
+        public void run() {
+            while (_limit > 0 ? _playouts < _limit
+                   : _playouts == 0 || !_clock.timeUp()) {
+                iterate();
+            }
+        }
+
+        /** Perform one iteration: descend from the root to a leaf,
+         *  widening the nodes on the way and expanding the leaf if they
+         *  have been visited often enough, play out from there, and
+         *  record the result on the path. */
+        private void iterate() {
+            int node = _root;
+            _path[0] = node;
+            int depth = 0;
+            _casRetries += _arena.addStats(node, VIRTUAL_LOSS, 0);
+            while (true) {
+                long children = _arena.children(node);
+                if (children == UNEXPANDED && !_full
+                    && visits(_arena.stats(node)) >= EXPAND_VISITS
+                    && _board.winner() == null) {
+                    if (_arena.claim(node)) {
+                        children = expand(node);
+                    } else {
+                        children = _arena.children(node);
+                    }
+                }
+                if (children == EXPANDING) {
+                    _busyExpansions += 1;
+                }
+                if (children == UNEXPANDED
+                    || children == EXPANDING) {
+                    break;
+                }
+                if (hasMore(children) && !_full
+                    && childCount(children)
+                       < width(visits(_arena.stats(node)))
+                    && _arena.claimWidening(node, children)) {
+                    children = widen(node, children);
+                }
+                node = select(node, children);
+                _casRetries += _arena.addStats(node, VIRTUAL_LOSS, 0);
+                _board.makeMove(_arena.move(node));
+                depth += 1;
+                _path[depth] = node;
+            }
+            _treeDepth = Math.max(_treeDepth, depth);
+            boolean moverWon = !playout();
+            for (int d = depth; d >= 0; d -= 1) {
+                _casRetries += _arena.addStats(_path[d], 1 - VIRTUAL_LOSS,
+                                               moverWon ? 1 : 0);
+                moverWon = !moverWon;
+                if (d > 0) {
+                    _board.undo();
+                }
+            }
+            _playouts += 1;
+        }
+
+        /** Return the first of CHILDREN, the children of NODE, not yet
+         *  chosen, if any, and otherwise the child with the greatest
+         *  upper confidence bound on its win rate (or one just chosen by
+         *  another thread, which has no visits yet). */
+        private int select(int node, long children) {
+            int n = childCount(children);
+            if (_arena.tried(node) < n) {
+                int tried = _arena.nextTried(node);
+                if (tried < n) {
+                    return _arena.child(children, tried);
+                }
+            }
+            double logVisits = Math.log(visits(_arena.stats(node)));
+            int best = firstChild(children);
+            double bestBound = Double.NEGATIVE_INFINITY;
+            int chunk = firstChild(children);
+            for (int left = n; left > 0; left -= _arena.chunkSize(chunk),
+                     chunk = _arena.nextChunk(chunk)) {
+                for (int child = chunk;
+                     child < chunk + _arena.chunkSize(chunk); child += 1) {
+                    long stats = _arena.stats(child);
+                    int visits = visits(stats);
+                    if (visits == 0) {
+                        return child;
+                    }
+                    double bound = (double) wins(stats) / visits
+                        + EXPLORATION * Math.sqrt(logVisits / visits);
+                    if (bound > bestBound) {
+                        best = child;
+                        bestBound = bound;
+                    }
+                }
+            }
+            return best;
+        }
+
+        /** Give NODE, whose position is on _board and which I have
+         *  claimed, children for its best-ranked legal moves, in order
+         *  of rank: as many as its visits call for, or all of them if
+         *  I am not widening.  Return its children.  If the arena has no
+         *  room for them, NODE stays a leaf, and no more nodes are
+         *  expanded. */
+        private long expand(int node) {
+            int n = rankMoves();
+            int count = _widen
+                ? Math.min(n, width(visits(_arena.stats(node)))) : n;
+            int first = _arena.allocate(_moves, count);
+            if (first < 0) {
+                _full = true;
+                count = 0;
+            }
+            _arena.setChildren(node, first, count, count < n);
+            return _arena.children(node);
+        }
+
+        /** Add to NODE, whose position is on _board, whose children are
+         *  CHILDREN, and which I have claimed by claimWidening, a chunk
+         *  of children for its next-ranked legal moves: enough for its
+         *  visits, and at least a quarter as many as it has, so that it
+         *  has few chunks.  Return its children.  If the arena has no
+         *  room for them, NODE is left as it was, and no more nodes are
+         *  added. */
+        private long widen(int node, long children) {
+            int n = rankMoves(), have = childCount(children);
+            int count = Math.min(n - have,
+                                 Math.max(width(visits(_arena.stats(node)))
+                                          - have, have / 4));
+            System.arraycopy(_moves, have, _moves, 0, count);
+            int first = _arena.allocate(_moves, count);
+            if (first < 0) {
+                _full = true;
+                count = 0;
+            }
+            _arena.addChildren(node, children, first, count,
+                               have + count < n);
+            return _arena.children(node);
+        }
+
+        /** Store the legal moves from the position on _board in _moves,
+         *  best first by the prior described in MonteCarloSearch, and
+         *  return their number. */
+        private int rankMoves() {
+            Piece side = _board.turn(), enemy = side.opponent();
+            int n = _board.legalMoves(side, _moves);
+            for (int sq = 0; sq < Board.SIZE * Board.SIZE; sq += 1) {
+                _space[sq] = _enemies[sq] = 0;
+                for (int neighbor : NEIGHBORS[sq]) {
+                    if (_board.isEmpty(neighbor)) {
+                        _space[sq] += 1;
+                    } else if (_board.get(neighbor) == enemy) {
+                        _enemies[sq] += 1;
+                    }
+                }
+            }
+            long hash = _board.hash();
+            for (int i = 0; i < n; i += 1) {
+                int move = _moves[i];
+                int from = Move.fromIndex(move), to = Move.toIndex(move),
+                    spear = Move.spearIndex(move);
+                int prior = SPEAR_WEIGHT * _enemies[spear]
+                    + _space[to] - _space[from]
+                    + (adjacent(to, from) ? 1 : 0)
+                    - (adjacent(to, spear) ? 1 : 0);
+                long tie = (hash ^ move) * TIE_MULTIPLIER >>> TIE_SHIFT;
+                _keys[i] = (long) -prior << PRIOR_SHIFT
+                    | tie << Integer.SIZE | move & UNSIGNED_MASK;
+            }
+            Arrays.sort(_keys, 0, n);
+            for (int i = 0; i < n; i += 1) {
+                _moves[i] = (int) _keys[i];
+            }
+            return n;
+        }
+
+        /** Play random moves from the position on _board until the game
+         *  is over or PLAYOUT_PLIES moves have been made, then undo them.
+         *  Return true iff the side to move at the start won, or is
+         *  judged by the static evaluation to be winning. */
+        private boolean playout() {
+            Piece side = _board.turn();
+            int plies;
+            for (plies = 0;
+                 plies < PLAYOUT_PLIES && _board.winner() == null;
+                 plies += 1) {
+                int n = _board.queenMoves(_board.turn(), _queenMoves);
+                _board.moveQueen(_queenMoves[_random.nextInt(n)]);
+                n = _board.spearThrows(_spearThrows);
+                _board.throwSpear(Move.spearIndex(_spearThrows[
+                    _random.nextInt(n)]));
+            }
+            int value = _evaluator.evaluate(_board);
+            for (; plies > 0; plies -= 1) {
+                _board.undo();
+            }
+            return side == WHITE ? value > 0 : value < 0;
+        }
+
+        /** The position searched, changed during each iteration and
+         *  restored at its end. */
+        private final Board _board = new Board();
+        /** Evaluates the positions at the ends of playouts. */
+        private final Evaluator _evaluator = new Evaluator(false);
+        /** Chooses playout moves and the order of children. */
+        private final Random _random;
+        /** The nodes on the path of the current iteration, by depth. */
+        private final int[] _path = new int[Board.SIZE * Board.SIZE + 1];
+        /** Scratch space for ranking moves. */
+        private final long[] _keys = new long[Board.MAX_MOVES];
+        /** For each square, while ranking moves, the numbers of empty
+         *  squares and enemy amazons next to it. */
+        private final int[] _space = new int[Board.SIZE * Board.SIZE],
+            _enemies = new int[Board.SIZE * Board.SIZE];
+        /** Buffers for moves. */
+        private final int[] _moves = new int[Board.MAX_MOVES],
+            _queenMoves = new int[Board.MAX_QUEEN_MOVES],
+            _spearThrows = new int[Board.MAX_QUEEN_MOVES];
+        /** My share of the playout limit, or 0 if limited by time. */
+        private int _limit;
+        /** My statistics for the current search. */
+        private long _playouts, _casRetries, _busyExpansions;
+        /** The greatest depth I have reached in the current search. */
+        private int _treeDepth;
+    }
+
+    /** Return the number of children called for by VISITS visits to a
+     *  node when widening. */
+    private static int width(int visits) {
+        return Math.max(MIN_WIDTH, (int) (WIDTH_FACTOR * Math.sqrt(visits)));
+    }
+
+    /** Return true iff the squares with indices A and B touch. */
+    private static boolean adjacent(int a, int b) {
+        return Math.abs(a % Board.SIZE - b % Board.SIZE) <= 1
+            && Math.abs(a / Board.SIZE - b / Board.SIZE) <= 1;
+    }
+
+    /** NEIGHBORS[s] holds the indices of the squares next to the one with
+     *  index s. */
+    private static final int[][] NEIGHBORS =
+        new int[Board.SIZE * Board.SIZE][];
+
+    static {
+        for (int sq = 0; sq < NEIGHBORS.length; sq += 1) {
+            int[] neighbors = new int[8];
+            int n = 0;
+            for (int dir = 0; dir < 8; dir += 1) {
+                int[] ray = Square.ray(sq, dir);
+                if (ray.length > 0) {
+                    neighbors[n] = ray[0];
+                    n += 1;
+                }
+            }
+            NEIGHBORS[sq] = Arrays.copyOf(neighbors, n);
+        }
+    }
+
+    /** The move "leading to" the root. */
+    private static final int[] ROOT_MOVE = { 0 };
+
+    /** The number of visits after which a leaf is expanded. */
+    private static final int EXPAND_VISITS = 16;
+
+    /** The least number of children given to a node when widening. */
+    private static final int MIN_WIDTH = 8;
+
+    /** When widening, a node with V visits has children for its
+     *  WIDTH_FACTOR * sqrt(V) best-ranked moves. */
+    private static final double WIDTH_FACTOR = 2;
+
+    /** The weight in the prior of each enemy amazon next to the
+     *  spear. */
+    private static final int SPEAR_WEIGHT = 2;
+
+    /** Positions in a ranking key of the prior and of the hash breaking
+     *  ties, which takes the bits between it and the move. */
+    private static final int PRIOR_SHIFT = 48,
+        TIE_SHIFT = Long.SIZE - (PRIOR_SHIFT - Integer.SIZE);
+
+    /** Mixes the bits of the tie-breaking hash. */
+    private static final long TIE_MULTIPLIER = 0x9e3779b97f4a7c15L;
+
+    /** Mask selecting a packed move from a ranking key. */
+    private static final long UNSIGNED_MASK = 0xffffffffL;
+
+    /** The greatest number of random moves in a playout. */
+    private static final int PLAYOUT_PLIES = 6;
+
+    /** The weight of the exploration term in the upper confidence
+     *  bound. */
+    private static final double EXPLORATION = 0.5;
+
+    /** The number of lost visits a thread adds to each node it passes
+     *  through until its playout is done. */
+    private static final int VIRTUAL_LOSS = 1;
+
+    /** Seed of the random moves of the first thread, fixed so that
+     *  searches limited by playouts are reproducible. */
+    private static final long SEED = 61;
+
+    /** Allocates the time for each move. */
+    private final TimeManager _clock;
+    /** The search threads, the first running in the caller's. */
+    private final Worker[] _workers;
+    /** The number of playouts per search, or 0 if limited by time. */
+    private int _playoutLimit;
+    /** Holds the tree. */
+    private final NodeArena _arena;
+    /** The root of the current tree, or -1 if there is none. */
+    private volatile int _root = -1;
+    /** The position at the root of the tree. */
+    private final Board _rootBoard = new Board();
+    /** True iff nodes are widened progressively. */
+    private boolean _widen = true;
+    /** See reused. */
+    private long _reused;
+    /** True iff the arena has been found full during the current
+     *  search. */
+    private volatile boolean _full;
+    /** See value. */
+    private double _value;
+}
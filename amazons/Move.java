@@ -46,6 +46,48 @@ final class Move {
         return MOVES[from.index()][to.index()][spear.index()];
     }
 
+    /** Return the unique Move whose packed form (see pack) is MOVE. */
+    static Move mv(int move) {
+        return mv(sq(fromIndex(move)), sq(toIndex(move)),
+                  sq(spearIndex(move)));
+    }
+
+    /** Return the packed form of the move FROM-TO(SPEAR), where FROM, TO,
+     *  and SPEAR are square indices.  Packed moves are ints holding the
+     *  three indices in consecutive 7-bit fields, and let move generators
+     *  and searches handle moves without creating Move objects. */
+    static int pack(int from, int to, int spear) {
+        return from | (to << INDEX_BITS) | (spear << (2 * INDEX_BITS));
+    }
+
+    /** Return the index of the square moved from in the packed MOVE. */
+    static int fromIndex(int move) {
+        return move & INDEX_MASK;
+    }
+
+    /** Return the index of the square moved to in the packed MOVE. */
+    static int toIndex(int move) {
+        return (move >>> INDEX_BITS) & INDEX_MASK;
+    }
+
+    /** Return the index of the spear's square in the packed MOVE. */
+    static int spearIndex(int move) {
+        return move >>> (2 * INDEX_BITS);
+    }
+
+    /** Return the image of the packed MOVE under the board symmetry
+     *  SYMMETRY (see Square.transform), packed. */
+    static int transform(int move, int symmetry) {
+        return pack(Square.transform(fromIndex(move), symmetry),
+                    Square.transform(toIndex(move), symmetry),
+                    Square.transform(spearIndex(move), symmetry));
+    }
+
+    /** Return my packed form. */
+    int packed() {
+        return pack(_from.index(), _to.index(), _spear.index());
+    }
+
     /** Return the Move denoted by STR, if STR denotes a move with
      *  valid syntax in which the piece move and spear throw are proper
      *  queen moves, and null otherwise. */
@@ -81,6 +123,9 @@ final class Move {
         _str = String.format("%s-%s(%s)", from, to, spear);
     }
 
+    /** Width and mask of a square-index field of a packed move. */
+    private static final int INDEX_BITS = 7, INDEX_MASK = (1 << 7) - 1;
+
     /** The cache of all Moves created. */
     private static final Move[][][] MOVES = new Move[100][100][100];
 
@@ -0,0 +1,394 @@
+package amazons;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Preallocated storage for the nodes of a MonteCarloSearch tree.  A
+ *  node is an int index into parallel arrays of primitives (a structure
+ *  of arrays) holding its move, its visits and wins packed into one
+ *  long, its children packed into one long, and the number of its
+ *  children chosen so far.  The children of a node occupy one or more
+ *  chunks, each a contiguous range of indices allocated all at once.
+ *  A node records only the first node of its first chunk and the total
+ *  number of its children, and the first node of each chunk records
+ *  the chunk's size and where the next one starts.  A node may be given
+ *  only some of its children at first, and more in later chunks (see
+ *  claimWidening and addChildren).  Allocation bumps a counter, and clear
+ *  empties the arena for reuse by resetting it, so no node is ever an
+ *  object and nothing is left for the garbage collector.  When the arena
+ *  is full, allocation fails and the tree stops growing until it is
+ *  cleared, or until retain frees all but one subtree.  Statistics and
+ *  children are updated by compare-and-set, so any number of threads
+ *  may share an arena without locks.
+ *  @author John Schulz
+ */
+final class NodeArena {
+
+    /** Bytes used by one node, including its share of the work space
+     *  of retain. */
+    static final int NODE_BYTES = 4 * Integer.BYTES + 3 * Long.BYTES;
+
+    /** The children of a node that has none yet. */
+    static final long UNEXPANDED = 0;
+
+    /** The children of a node that a thread is expanding. */
+    static final long EXPANDING = -1;
+
+    /** An arena using at most MEGABYTES megabytes for its nodes (at least
+     *  one node). */
+    NodeArena(int megabytes) {
+        long nodes = Math.max(1, ((long) megabytes << 20) / NODE_BYTES);
+        int capacity = (int) Math.min(nodes, MAX_NODES);
+        _moves = new int[capacity];
+        _stats = new AtomicLongArray(capacity);
+        _children = new AtomicLongArray(capacity);
+        _tried = new AtomicIntegerArray(capacity);
+        _chunkSize = new int[capacity];
+        _nextChunk = new int[capacity];
+        _work = new long[capacity];
+    }
+
+    /** Return the number of nodes I can hold. */
+    int capacity() {
+        return _moves.length;
+    }
+
+    /** Return the number of nodes allocated since the last clear. */
+    int size() {
+        return _size.get();
+    }
+
+    /** Free all nodes. */
+    void clear() {
+        _size.set(0);
+    }
+
+    /** Free all nodes except NODE and its descendants, moving them to
+     *  the front of the arena, with NODE at index 0.  Must not be called
+     *  while other threads are using the arena.
+     *
+     *  Since a node's children are allocated after it, and each chunk of
+     *  them after the one before, every chunk starts after its parent,
+     *  after the chunk holding its parent, and after the chunk before
+     *  it.  Moving the chunks to be kept down in order of their old
+     *  positions therefore never overwrites one not yet moved, and finds
+     *  each parent or previous chunk already in its new place, ready to
+     *  be pointed at the chunk's.  The chunks are listed and sorted in
+     *  _work, which has room for one per node, so nothing is
+     *  allocated. */
+    void retain(int node) {
+        int chunks = listChunks(_children.get(node), 0);
+        for (int k = 0; k < chunks; k += 1) {
+            int chunk = (int) (_work[k] >>> Integer.SIZE);
+            for (int i = 0; i < _chunkSize[chunk]; i += 1) {
+                chunks = listChunks(_children.get(chunk + i), chunks);
+            }
+        }
+        Arrays.sort(_work, 0, chunks);
+        long children = _children.get(node);
+        move(node, 0);
+        setOwners(children, 0, chunks);
+        int size = 1;
+        for (int k = 0; k < chunks; k += 1) {
+            int chunk = (int) (_work[k] >>> Integer.SIZE),
+                owner = (int) _work[k], count = _chunkSize[chunk];
+            if ((owner & NEXT_OWNER) != 0) {
+                _nextChunk[(int) _work[owner & ~NEXT_OWNER]] = size;
+            } else {
+                _children.set(owner, (long) size << Integer.SIZE
+                              | _children.get(owner) & LOW_MASK);
+            }
+            for (int i = 0; i < count; i += 1) {
+                children = _children.get(chunk + i);
+                move(chunk + i, size + i);
+                setOwners(children, size + i, chunks);
+            }
+            _work[k] = (long) chunk << Integer.SIZE | size;
+            size += count;
+        }
+        _size.set(size);
+    }
+
+    /** Add the first node of each chunk of CHILDREN, if it is not
+     *  UNEXPANDED, to the N chunks listed in _work by retain, shifted
+     *  into the high word.  Return the new number listed. */
+    private int listChunks(long children, int n) {
+        if (children == UNEXPANDED) {
+            return n;
+        }
+        int chunk = firstChild(children);
+        for (int left = childCount(children); left > 0;
+             left -= _chunkSize[chunk], chunk = _nextChunk[chunk]) {
+            _work[n] = (long) chunk << Integer.SIZE;
+            n += 1;
+        }
+        return n;
+    }
+
+    /** Record in the low words of the entries in the first N of _work
+     *  (sorted) for the chunks of CHILDREN, if it is not UNEXPANDED,
+     *  where the pointers to them are: for the first, in the node now
+     *  at index PARENT, and for each of the others, in the chunk
+     *  before, given by its entry's number with NEXT_OWNER set. */
+    private void setOwners(long children, int parent, int n) {
+        if (children == UNEXPANDED) {
+            return;
+        }
+        int chunk = firstChild(children), owner = parent;
+        for (int left = childCount(children); left > 0;
+             left -= _chunkSize[chunk], chunk = _nextChunk[chunk]) {
+            int low = 0, high = n - 1, k = 0;
+            while (low <= high) {
+                k = (low + high) >>> 1;
+                int found = (int) (_work[k] >>> Integer.SIZE);
+                if (found < chunk) {
+                    low = k + 1;
+                } else if (found > chunk) {
+                    high = k - 1;
+                } else {
+                    break;
+                }
+            }
+            _work[k] = (long) chunk << Integer.SIZE | owner & LOW_MASK;
+            owner = NEXT_OWNER | k;
+        }
+    }
+
+    /** Copy node FROM to index TO. */
+    private void move(int from, int to) {
+        _moves[to] = _moves[from];
+        _stats.set(to, _stats.get(from));
+        _children.set(to, _children.get(from));
+        _tried.set(to, _tried.get(from));
+        _chunkSize[to] = _chunkSize[from];
+        _nextChunk[to] = _nextChunk[from];
+    }
+
+    /** Allocate a chunk of N contiguous nodes reached by the packed moves
+     *  in MOVES[0 .. N-1], with no visits or children, and return the
+     *  index of the first, or -1 if there is no room. */
+    int allocate(int[] moves, int n) {
+        int first;
+        do {
+            first = _size.get();
+            if (n > capacity() - first) {
+                return -1;
+            }
+        } while (!_size.compareAndSet(first, first + n));
+        for (int i = 0; i < n; i += 1) {
+            _moves[first + i] = moves[i];
+            _stats.set(first + i, 0);
+            _children.set(first + i, UNEXPANDED);
+            _tried.set(first + i, 0);
+        }
+        _chunkSize[first] = n;
+        return first;
+    }
+
+    /** Return the packed move leading to NODE. */
+    int move(int node) {
+        return _moves[node];
+    }
+
+    /** Return the statistics of NODE, unpacked by visits and wins. */
+    long stats(int node) {
+        return _stats.get(node);
+    }
+
+    /** Add VISITS visits and WINS wins to the statistics of NODE,
+     *  returning the number of compare-and-sets that failed because
+     *  another thread changed them first. */
+    int addStats(int node, int visits, int wins) {
+        long delta = ((long) visits << VISITS_SHIFT) + wins;
+        int retries = 0;
+        while (delta != 0) {
+            long stats = _stats.get(node);
+            if (_stats.compareAndSet(node, stats, stats + delta)) {
+                return retries;
+            }
+            retries += 1;
+        }
+        return 0;
+    }
+
+    /** Return the number of visits in the statistics STATS. */
+    static int visits(long stats) {
+        return (int) (stats >>> VISITS_SHIFT);
+    }
+
+    /** Return the number of wins in the statistics STATS. */
+    static int wins(long stats) {
+        return (int) stats;
+    }
+
+    /** Return the children of NODE: UNEXPANDED, EXPANDING, or chunks
+     *  unpacked by firstChild, childCount, hasMore, and widening. */
+    long children(int node) {
+        return _children.get(node);
+    }
+
+    /** Return the index of the first child in CHILDREN, which is also
+     *  the first node of its first chunk. */
+    static int firstChild(long children) {
+        return (int) (children >>> Integer.SIZE);
+    }
+
+    /** Return the number of children in CHILDREN. */
+    static int childCount(long children) {
+        return (int) children & COUNT_MASK;
+    }
+
+    /** Return true iff the node with CHILDREN has legal moves without
+     *  children yet. */
+    static boolean hasMore(long children) {
+        return (children & MORE) != 0;
+    }
+
+    /** Return true iff a thread is adding to CHILDREN. */
+    static boolean widening(long children) {
+        return (children & WIDENING) != 0;
+    }
+
+    /** Return the number of nodes in the chunk starting at CHUNK. */
+    int chunkSize(int chunk) {
+        return _chunkSize[chunk];
+    }
+
+    /** Return the first node of the chunk after the one starting at
+     *  CHUNK, if there is one. */
+    int nextChunk(int chunk) {
+        return _nextChunk[chunk];
+    }
+
+    /** Return child number K of a node with CHILDREN. */
+    int child(long children, int k) {
+        int chunk = firstChild(children);
+        while (k >= _chunkSize[chunk]) {
+            k -= _chunkSize[chunk];
+            chunk = _nextChunk[chunk];
+        }
+        return chunk + k;
+    }
+
+    /** Mark NODE as being expanded by the calling thread, if it is
+     *  UNEXPANDED, and return true iff it was. */
+    boolean claim(int node) {
+        return _children.compareAndSet(node, UNEXPANDED, EXPANDING);
+    }
+
+    /** Give NODE, which the calling thread has claimed, the COUNT
+     *  children in the chunk starting at FIRST, or none if COUNT is 0,
+     *  and no others.  Publishes the children to the other threads. */
+    void setChildren(int node, int first, int count) {
+        setChildren(node, first, count, false);
+    }
+
+    /** Give NODE, which the calling thread has claimed, the COUNT
+     *  children in the chunk starting at FIRST, or none if COUNT is 0,
+     *  with more to be added later iff MORE.  Publishes the children to
+     *  the other threads. */
+    void setChildren(int node, int first, int count, boolean more) {
+        _children.set(node, count == 0 ? UNEXPANDED
+                      : (long) first << Integer.SIZE | count
+                      | (more ? MORE : 0));
+    }
+
+    /** Mark NODE, whose children are CHILDREN, as having more added by
+     *  the calling thread, if it has more to add and no other thread is
+     *  adding them, and its children are still CHILDREN.  Return true
+     *  iff it was marked. */
+    boolean claimWidening(int node, long children) {
+        return hasMore(children) && !widening(children)
+            && _children.compareAndSet(node, children, children | WIDENING);
+    }
+
+    /** Add the COUNT children in the chunk starting at FIRST to NODE,
+     *  which the calling thread has marked by claimWidening when its
+     *  children were CHILDREN, with more still to be added iff MORE, or
+     *  just remove the mark if COUNT is 0.  Publishes the new children
+     *  to the other threads. */
+    void addChildren(int node, long children, int first, int count,
+                     boolean more) {
+        if (count == 0) {
+            _children.set(node, children);
+            return;
+        }
+        int chunk = firstChild(children);
+        for (int left = childCount(children) - _chunkSize[chunk]; left > 0;
+             left -= _chunkSize[chunk]) {
+            chunk = _nextChunk[chunk];
+        }
+        _nextChunk[chunk] = first;
+        _children.set(node, (long) firstChild(children) << Integer.SIZE
+                      | childCount(children) + count | (more ? MORE : 0));
+    }
+
+    /** Return the number of children of NODE chosen so far by
+     *  nextTried. */
+    int tried(int node) {
+        return _tried.get(node);
+    }
+
+    /** Count one more child of NODE chosen, returning the previous
+     *  count. */
+    int nextTried(int node) {
+        return _tried.getAndIncrement(node);
+    }
+
+    @Override
+    public String toString() {
+        long bytes = (long) capacity() * NODE_BYTES;
+        return String.format("node arena %dMB: %d of %d nodes used",
+                             (bytes + (1 << 20) - 1) >> 20, size(),
+                             capacity());
+    }
+
+    /** The position of the visit count in statistics. */
+    private static final int VISITS_SHIFT = 32;
+
+    /** Flags in children: the node has more children to add, and a
+     *  thread is adding them. */
+    private static final long MORE = 1L << 30, WIDENING = 1L << 31;
+
+    /** Selects the number of children from children. */
+    private static final int COUNT_MASK = (1 << 30) - 1;
+
+    /** Marks an owner in _work as the chunk before. */
+    private static final int NEXT_OWNER = 1 << 31;
+
+    /** Selects the number of children and flags from children. */
+    private static final long LOW_MASK = 0xffffffffL;
+
+    /** The largest number of nodes (limited by the maximum array
+     *  length). */
+    private static final long MAX_NODES = Integer.MAX_VALUE - 8;
+
+    /** The moves leading to the nodes. */
+    private final int[] _moves;
+    /** The statistics of the nodes: the number of playouts through each
+     *  (shifted left by VISITS_SHIFT), including those in progress, plus
+     *  the number won by the side that made its move, not counting those
+     *  in progress. */
+    private final AtomicLongArray _stats;
+    /** The children of the nodes: the index of the first in the high
+     *  word and their number in the low word, or UNEXPANDED or
+     *  EXPANDING. */
+    private final AtomicLongArray _children;
+    /** The number of children of each node chosen so far. */
+    private final AtomicIntegerArray _tried;
+    /** For the first node of each chunk, the number of nodes in the
+     *  chunk and the first node of the next chunk of the same children,
+     *  if any.  Written before the children including the chunk are
+     *  published, and read only after. */
+    private final int[] _chunkSize, _nextChunk;
+    /** The number of nodes allocated. */
+    private final AtomicInteger _size = new AtomicInteger();
+    /** Work space for retain: an entry for each chunk kept, holding
+     *  its old first node in the high word.  In the low word, until the
+     *  chunk is moved, the node pointing to it, or NEXT_OWNER plus the
+     *  number of the entry for the chunk before, and then its new first
+     *  node. */
+    private final long[] _work;
+}
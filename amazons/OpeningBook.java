@@ -0,0 +1,237 @@
+package amazons;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/** A book of opening moves, found in advance by deep searches and kept in
+ *  a file.
+ *
+ *  Every position has up to eight images under the symmetries of the
+ *  board (Square.transform), all with the same value and with the
+ *  corresponding moves.  The book holds only one of them: the image
+ *  with the smallest Zobrist key (Board.hash(int)), its canonical form.
+ *  The file holds a header of HEADER_BYTES bytes (MAGIC, the number of
+ *  plies covered, and the number of records) followed by one
+ *  RECORD_BYTES record for each position: the key of its canonical
+ *  form (8 bytes), the best move found in that form (packed, 4 bytes),
+ *  and its value for the side to move (4 bytes).  Records are sorted by
+ *  key, so that they can be found by binary search.  As with Tablebase,
+ *  the file is mapped into memory read-only and searched in place, and
+ *  any number of threads may share one OpeningBook.
+ *
+ *  To build a book covering every position reachable in fewer than
+ *  PLIES moves from the start, searching each to DEPTH, run
+ *      java amazons.OpeningBook FILE PLIES DEPTH
+ *  @author John Schulz
+ */
+final class OpeningBook {
+
+    /** The first four bytes of an opening book file. */
+    static final int MAGIC = 0x414d4f42;
+
+    /** Bytes in the header. */
+    static final int HEADER_BYTES = 16;
+
+    /** Bytes in a record. */
+    static final int RECORD_BYTES = 16;
+
+    /** The result of probe for a position that is not in the book. */
+    static final long MISSING = Long.MIN_VALUE;
+
+    /** Build the book of positions reachable in fewer than ARGS[1] moves
+     *  from the start, each searched to depth ARGS[2], and write it to
+     *  the file ARGS[0].
+     *  Reports progress on the standard error. */
+    public static void main(String... args) {
+        if (args.length != 3) {
+            System.err.println("Usage: java amazons.OpeningBook FILE PLIES"
+                               + " DEPTH");
+            System.exit(1);
+        }
+        try {
+            int records = build(Paths.get(args[0]), new Board(),
+                                Integer.parseInt(args[1]),
+                                Integer.parseInt(args[2]), true);
+            System.out.printf("%d positions written.%n", records);
+        } catch (IOException | IllegalArgumentException excp) {
+            System.err.printf("Could not build opening book: %s%n",
+                              excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Write a book of every position reachable in fewer than PLIES moves
+     *  from START, each searched to depth DEPTH, to the file PATH,
+     *  replacing any file there, reporting progress on the standard
+     *  error iff VERBOSE.  Return the number of records written. */
+    static int build(Path path, Board start, int plies, int depth,
+                     boolean verbose) throws IOException {
+        if (plies < 1 || depth < 1 || depth > Searcher.MAX_DEPTH) {
+            throw Utils.error("bad number of plies or depth");
+        }
+        Searcher searcher =
+            new Searcher(new TranspositionTable(BUILD_HASH_SIZE),
+                         new TimeManager(1, 1));
+        searcher.setDepthLimit(depth);
+        List<long[]> records = new ArrayList<>();
+        HashSet<Long> seen = new HashSet<>();
+        List<Board> level = new ArrayList<>();
+        level.add(new Board(start));
+        seen.add(canonicalKey(start));
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int ply = 0; ply < plies && !level.isEmpty(); ply += 1) {
+            List<Board> next = new ArrayList<>();
+            for (Board board : level) {
+                if (board.winner() != null) {
+                    continue;
+                }
+                int symmetry = canonicalSymmetry(board);
+                searcher.setPosition(board);
+                searcher.think(Searcher.MAX_DEPTH, 1);
+                records.add(new long[] {
+                    board.hash(symmetry),
+                    Move.transform(searcher.bestMove(), symmetry),
+                    searcher.value()
+                });
+                if (ply + 1 < plies) {
+                    int n = board.legalMoves(board.turn(), moves);
+                    for (int i = 0; i < n; i += 1) {
+                        board.makeMove(moves[i]);
+                        if (seen.add(canonicalKey(board))) {
+                            next.add(new Board(board));
+                        }
+                        board.undo();
+                    }
+                }
+            }
+            if (verbose) {
+                System.err.printf("ply %d: %d positions%n", ply,
+                                  level.size());
+            }
+            level = next;
+        }
+        records.sort(Comparator.comparingLong(r -> r[0]));
+        ByteBuffer buf =
+            ByteBuffer.allocate(HEADER_BYTES + RECORD_BYTES * records.size());
+        buf.putInt(MAGIC).putInt(plies).putLong(records.size());
+        for (long[] r : records) {
+            buf.putLong(r[0]).putInt((int) r[1]).putInt((int) r[2]);
+        }
+        buf.flip();
+        try (FileChannel channel =
+             FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+        return records.size();
+    }
+
+    /** Return an OpeningBook for the book in the file PATH. */
+    static OpeningBook open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("not an opening book: " + path);
+            }
+            MappedByteBuffer data =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.getInt(0) != MAGIC) {
+                throw new IOException("not an opening book: " + path);
+            }
+            long records = data.getLong(2 * Integer.BYTES);
+            if (HEADER_BYTES + RECORD_BYTES * records != channel.size()) {
+                throw new IOException("damaged opening book: " + path);
+            }
+            return new OpeningBook(data, (int) records);
+        }
+    }
+
+    /** A book held in the RECORDS records of DATA. */
+    private OpeningBook(MappedByteBuffer data, int records) {
+        _data = data;
+        _records = records;
+    }
+
+    /** Return the number of positions in the book. */
+    int size() {
+        return _records;
+    }
+
+    /** Return the book entry for BOARD, or MISSING if there is none.  Its
+     *  parts are given by move and score. */
+    long probe(Board board) {
+        int symmetry = canonicalSymmetry(board);
+        long key = board.hash(symmetry);
+        int low = 0, high = _records - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int pos = HEADER_BYTES + mid * RECORD_BYTES;
+            long found = _data.getLong(pos);
+            if (found < key) {
+                low = mid + 1;
+            } else if (found > key) {
+                high = mid - 1;
+            } else {
+                int move = Move.transform(_data.getInt(pos + Long.BYTES),
+                                          Square.inverse(symmetry));
+                return (long) _data.getInt(pos + Long.BYTES + Integer.BYTES)
+                    << Integer.SIZE | (move & 0xffffffffL);
+            }
+        }
+        return MISSING;
+    }
+
+    /** Return the move (packed) in the book ENTRY returned by probe. */
+    static int move(long entry) {
+        return (int) entry;
+    }
+
+    /** Return the value for the side to move in the book ENTRY returned
+     *  by probe. */
+    static int score(long entry) {
+        return (int) (entry >> Integer.SIZE);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("opening book: %d positions", _records);
+    }
+
+    /** Return the symmetry that takes BOARD to its canonical form. */
+    static int canonicalSymmetry(Board board) {
+        int best = 0;
+        long bestKey = board.hash();
+        for (int s = 1; s < Square.SYMMETRIES; s += 1) {
+            long key = board.hash(s);
+            if (key < bestKey) {
+                best = s;
+                bestKey = key;
+            }
+        }
+        return best;
+    }
+
+    /** Return the key of the canonical form of BOARD. */
+    static long canonicalKey(Board board) {
+        return board.hash(canonicalSymmetry(board));
+    }
+
+    /** Size of the transposition table used while building, in
+     *  megabytes. */
+    private static final int BUILD_HASH_SIZE = 256;
+
+    /** The mapped file. */
+    private final MappedByteBuffer _data;
+    /** The number of records. */
+    private final int _records;
+}
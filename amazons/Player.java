@@ -36,6 +36,17 @@ abstract class Player {
      *  is not null. */
     abstract String myMove();
 
+    /** Called by my Controller just after MOVE, by either side, has been
+     *  made on board().  By default, does nothing. */
+    void moveMade(Move move) {
+    }
+
+    /** Called by my Controller when I will make no more moves in the
+     *  current game: it is over or abandoned, or I have been replaced.
+     *  By default, does nothing. */
+    void dismiss() {
+    }
+
     /** My Controller. */
     protected Controller _controller;
     /** The Piece I play (WHITE or BLACK). */
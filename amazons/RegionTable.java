@@ -0,0 +1,138 @@
+package amazons;
+
+import java.util.Arrays;
+
+/** A hash map of bounded size from keys of two words to values of one,
+ *  used by EndgameSolver to remember the values of the regions it has
+ *  solved.  Entries live in primitive arrays with open addressing and
+ *  linear probing, so nothing is allocated after construction.  A key
+ *  whose second word is 0 is not allowed.  Rather than grow, the map
+ *  empties itself when it becomes three-quarters full; since its
+ *  contents can always be recomputed, this only costs time.  Not safe
+ *  for use by more than one thread.
+ *  @author John Schulz
+ */
+final class RegionTable {
+
+    /** The result of get for a key that is not in the map. */
+    static final long MISSING = -1;
+
+    /** Bytes used by one slot. */
+    static final int SLOT_BYTES = 3 * Long.BYTES;
+
+    /** A map using at most MEGABYTES megabytes (at least two slots). The
+     *  number of slots is rounded down to a power of two. */
+    RegionTable(int megabytes) {
+        long slots = Math.max(2, ((long) megabytes << 20) / SLOT_BYTES);
+        slots = Math.min(Long.highestOneBit(slots), MAX_SLOTS);
+        _keys = new long[(int) (2 * slots)];
+        _values = new long[(int) slots];
+        _mask = (int) slots - 1;
+        _limit = (int) (slots - Math.max(1, slots / 4));
+    }
+
+    /** Return the value stored for the key LO, HI, or MISSING if there is
+     *  none. */
+    long get(long lo, long hi) {
+        for (int slot = slot(lo, hi); _keys[2 * slot + 1] != 0;
+             slot = (slot + 1) & _mask) {
+            if (_keys[2 * slot] == lo && _keys[2 * slot + 1] == hi) {
+                _hits += 1;
+                return _values[slot];
+            }
+        }
+        _misses += 1;
+        return MISSING;
+    }
+
+    /** Store VALUE, which must not be MISSING, as the value of the key
+     *  LO, HI, where HI != 0. */
+    void put(long lo, long hi, long value) {
+        int slot = slot(lo, hi);
+        while (_keys[2 * slot + 1] != 0
+               && (_keys[2 * slot] != lo || _keys[2 * slot + 1] != hi)) {
+            slot = (slot + 1) & _mask;
+        }
+        if (_keys[2 * slot + 1] == 0) {
+            if (_size == _limit) {
+                clearEntries();
+                put(lo, hi, value);
+                return;
+            }
+            _size += 1;
+        }
+        _keys[2 * slot] = lo;
+        _keys[2 * slot + 1] = hi;
+        _values[slot] = value;
+    }
+
+    /** Remove all entries and reset the counters. */
+    void clear() {
+        clearEntries();
+        _hits = _misses = 0;
+    }
+
+    /** Return the number of slots. */
+    int capacity() {
+        return _mask + 1;
+    }
+
+    /** Return the number of entries. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the number of gets that found their key. */
+    long hits() {
+        return _hits;
+    }
+
+    /** Return the number of gets that did not. */
+    long misses() {
+        return _misses;
+    }
+
+    @Override
+    public String toString() {
+        long probes = _hits + _misses;
+        return String.format("region table %dMB: %d entries, %d probes,"
+                             + " %.1f%% hits",
+                             ((long) capacity() * SLOT_BYTES) >> 20, _size,
+                             probes,
+                             probes == 0 ? 0.0 : 100.0 * _hits / probes);
+    }
+
+    /** Remove all entries. */
+    private void clearEntries() {
+        Arrays.fill(_keys, 0L);
+        _size = 0;
+    }
+
+    /** Return the first slot to try for the key LO, HI. */
+    private int slot(long lo, long hi) {
+        long h = (lo * MULTIPLIER_LO) ^ (hi * MULTIPLIER_HI);
+        return (int) (h ^ (h >>> 32)) & _mask;
+    }
+
+    /** The largest number of slots (limited by the maximum array
+     *  length). */
+    private static final long MAX_SLOTS = 1L << 29;
+
+    /** Odd multipliers that scatter the bits of keys. */
+    private static final long MULTIPLIER_LO = 0x9E3779B97F4A7C15L,
+        MULTIPLIER_HI = 0xC2B2AE3D27D4EB4FL;
+
+    /** Pairs of key words, one pair per slot. A slot is free iff its
+     *  second word is 0. */
+    private final long[] _keys;
+    /** Values, one per slot. */
+    private final long[] _values;
+    /** Mask that reduces a hash to a slot number. */
+    private final int _mask;
+    /** The number of entries at which the map is emptied. */
+    private final int _limit;
+    /** The number of entries. */
+    private int _size;
+    /** Get counters. */
+    private long _hits, _misses;
+}
@@ -0,0 +1,528 @@
+package amazons;
+
+import java.util.Arrays;
+
+import static amazons.Piece.*;
+
+/** The alpha-beta search used by AI, together with all the state one
+ *  search thread needs: its own copy of the position, move buffers, and
+ *  counters.  Searchers running in different threads share only the
+ *  transposition table and the clock, so each thread of a parallel
+ *  search has a Searcher of its own.
+ *  @author John Schulz
+ */
+final class Searcher {
+
+    /** A position magnitude indicating a win (for the side to move if
+     *  positive, its opponent if negative). */
+    static final int WINNING_VALUE = Integer.MAX_VALUE - 1;
+    /** A magnitude greater than a normal value. */
+    static final int INFTY = Integer.MAX_VALUE;
+
+    /** The deepest search I will do. */
+    static final int MAX_DEPTH = 32;
+
+    /** A Searcher that records results in TABLE and stops when CLOCK
+     *  says the time for the current move is up. */
+    Searcher(TranspositionTable table, TimeManager clock) {
+        _table = table;
+        _clock = clock;
+    }
+
+    /** Make my position a copy of BOARD, whose side to move I will find
+     *  moves for, and reset my results and counters. */
+    void setPosition(Board board) {
+        _board.copy(board);
+        _stopped = false;
+        _nodes = 0;
+        _depthReached = _bestValue = 0;
+        _cutoffs = _firstMoveCutoffs = _aspirationFailures = 0;
+        _board.legalMoves(_board.turn(), _moves[0]);
+        _bestMove = _moves[0][0];
+        for (int[] killers : _killers) {
+            Arrays.fill(killers, 0);
+        }
+        for (int i = 0; i < _queenHistory.length; i += 1) {
+            _queenHistory[i] >>= 1;
+            _spearHistory[i] >>= 1;
+        }
+    }
+
+    /** Vary my search for use as a helper thread number HELPER > 0 of a
+     *  parallel search: helpers skip every other depth in alternation
+     *  and try the root moves in rotated orders, so that they fill the
+     *  shared transposition table with different parts of the tree.
+     *  HELPER 0 is the unvaried search. */
+    void setHelper(int helper) {
+        _helper = helper;
+    }
+
+    /** Look up and record static values in CACHE, which may be shared
+     *  with other Searchers, or evaluate every leaf afresh if CACHE is
+     *  null. */
+    void setEvalCache(EvalCache cache) {
+        _evalCache = cache;
+    }
+
+    /** Search in split-ply mode iff SPLIT: each queen move and each spear
+     *  throw is a level of the tree of its own, so that cutoffs,
+     *  transposition-table lookups, and move ordering happen after the
+     *  queen move, before its spears are generated.  Depths still count
+     *  whole moves, but are limited to MAX_DEPTH / 2. */
+    void setSplitPly(boolean split) {
+        _split = split;
+    }
+
+    /** Search my position to increasing depths, up to MAXDEPTH, until I
+     *  am stopped or run out of time, recording the best move of the
+     *  last search that finished.  The main search (not a helper) also
+     *  quits when it finds a forced win or loss, or when it has used
+     *  more than NEXTDEPTHFRACTION of the time allotted, since a deeper
+     *  search would not finish.  Each search after the first starts with
+     *  an aspiration window around the value of the one before, and
+     *  widens it if the value falls outside. */
+    void think(int maxDepth, double nextDepthFraction) {
+        if (_depthLimit > 0) {
+            maxDepth = _depthLimit;
+            nextDepthFraction = Double.POSITIVE_INFINITY;
+        }
+        if (_split) {
+            maxDepth = Math.min(maxDepth, MAX_DEPTH / 2);
+        }
+        int step = _helper == 0 ? 1 : 2;
+        int value = 0;
+        for (int depth = 1 + _helper % 2; depth <= maxDepth; depth += step) {
+            value = aspirationSearch(depth, value,
+                                     depth == 1 + _helper % 2);
+            if (_stopped) {
+                break;
+            }
+            _bestMove = _lastFoundMove;
+            _bestValue = value;
+            _depthReached = depth;
+            if (_helper == 0
+                && (Math.abs(value) >= WINNING_VALUE
+                    || _clock.fractionUsed() > nextDepthFraction)) {
+                break;
+            }
+        }
+    }
+
+    /** Search my position to DEPTH and return its value for the side to
+     *  move, leaving the best move in _lastFoundMove.  Unless FIRST, the
+     *  search starts with a narrow window around GUESS, the value found
+     *  by the search to the previous depth. */
+    private int aspirationSearch(int depth, int guess, boolean first) {
+        if (_split) {
+            depth *= 2;
+        }
+        if (first || Math.abs(guess) >= WINNING_VALUE) {
+            return findMove(_board, depth, 0, true, -INFTY, INFTY);
+        }
+        long delta = ASPIRATION_WINDOW;
+        int alpha = window(guess - delta), beta = window(guess + delta);
+        while (true) {
+            int value = findMove(_board, depth, 0, true, alpha, beta);
+            if (_stopped) {
+                return 0;
+            } else if (value <= alpha && alpha > -INFTY) {
+                alpha = window((long) value - delta);
+            } else if (value >= beta && beta < INFTY) {
+                beta = window((long) value + delta);
+            } else {
+                return value;
+            }
+            _aspirationFailures += 1;
+            delta *= ASPIRATION_GROWTH;
+        }
+    }
+
+    /** Return the window bound VALUE, limited to -INFTY .. INFTY. */
+    private static int window(long value) {
+        return (int) Math.max(-INFTY, Math.min(INFTY, value));
+    }
+
+    /** Search exactly to depth DEPTH, ignoring the clock, if DEPTH > 0;
+     *  otherwise search as deep as time allows. */
+    void setDepthLimit(int depth) {
+        _depthLimit = depth;
+    }
+
+    /** Make the current search stop as soon as possible.  May be called
+     *  from another thread. */
+    void stop() {
+        _stopped = true;
+    }
+
+    /** Return the best move (packed) found by the last complete search,
+     *  or the first legal move if none has finished. */
+    int bestMove() {
+        return _bestMove;
+    }
+
+    /** Return the value, for the side to move, found by the last complete
+     *  search. */
+    int value() {
+        return _bestValue;
+    }
+
+    /** Return the depth of the last complete search. */
+    int depthReached() {
+        return _depthReached;
+    }
+
+    /** Return the number of nodes visited since the last setPosition. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Return the number of root searches repeated with a wider window
+     *  since the last setPosition. */
+    long aspirationFailures() {
+        return _aspirationFailures;
+    }
+
+    /** Return the number of beta cutoffs since the last setPosition. */
+    long cutoffs() {
+        return _cutoffs;
+    }
+
+    /** Return the number of beta cutoffs caused by the first move searched
+     *  since the last setPosition. */
+    long firstMoveCutoffs() {
+        return _firstMoveCutoffs;
+    }
+
+    /** Return the value of position BOARD for the side to move, searched
+     *  to DEPTH levels by negamax principal variation search, recording
+     *  the best move found in _lastFoundMove iff SAVEMOVE.  The value is
+     *  exact if it lies strictly between ALPHA and BETA; otherwise it is
+     *  an upper bound if <= ALPHA and a lower bound if >= BETA.  After
+     *  the first move, each move is searched with a null window to show
+     *  that it is no better than the best so far, and searched again with
+     *  the full window only if it is.  Searching at level 0 simply returns
+     *  a static estimate of the board value and does not set
+     *  _lastMoveFound.  Results are recorded in, and reused from, the
+     *  transposition table.  BOARD is PLY levels below the root.
+     *
+     *  In split-ply mode, a level is half a move: the levels at which the
+     *  side to move chooses a queen move alternate with those at which
+     *  it throws that queen's spear (when BOARD has a pending queen
+     *  move), and DEPTH is even at the former. */
+    private int findMove(Board board, int depth, int ply, boolean saveMove,
+                         int alpha, int beta) {
+        _nodes += 1;
+        if ((_nodes & CLOCK_CHECK_MASK) == 0 && _depthLimit == 0
+            && _clock.timeUp()) {
+            _stopped = true;
+        }
+        if (_stopped) {
+            return 0;
+        }
+        int queenMove = board.pendingQueenMove();
+        int half = !_split ? WHOLE_MOVE
+            : queenMove == 0 ? QUEEN_HALF : SPEAR_HALF;
+        if (half != SPEAR_HALF && (depth == 0 || board.winner() != null)) {
+            return score(board);
+        }
+        boolean rootSpear = half == SPEAR_HALF && ply == 1;
+        long key = board.hash();
+        long entry = _table.probe(key);
+        if (entry != 0 && !saveMove && !rootSpear
+            && TranspositionTable.depth(entry) >= depth) {
+            int score = TranspositionTable.score(entry);
+            switch (TranspositionTable.bound(entry)) {
+            case TranspositionTable.EXACT:
+                return score;
+            case TranspositionTable.LOWER:
+                alpha = Math.max(alpha, score);
+                break;
+            default:
+                beta = Math.min(beta, score);
+                break;
+            }
+            if (alpha >= beta) {
+                return score;
+            }
+        }
+        int alpha0 = alpha;
+        Piece side = board.turn();
+        int[] moves = _moves[depth];
+        int n = half == WHOLE_MOVE ? board.legalMoves(side, moves)
+            : half == QUEEN_HALF ? board.queenMoves(side, moves)
+            : board.spearThrows(moves);
+        orderMoves(moves, n, _sortKeys[depth], TranspositionTable.move(entry),
+                   _killers[ply], side, half);
+        if (saveMove && _helper > 0 && n > 1) {
+            rotate(moves, n, _helper * HELPER_ROTATION % n);
+        }
+        boolean sameSide = half == QUEEN_HALF;
+        int best = -INFTY;
+        int bestMove = 0;
+        for (int i = 0; i < n; i += 1) {
+            makeMove(board, moves[i], half);
+            int value;
+            if (i == 0) {
+                value = child(board, depth, ply, sameSide, alpha, beta);
+            } else {
+                value = child(board, depth, ply, sameSide, alpha, alpha + 1);
+                if (value > alpha && value < beta) {
+                    value = child(board, depth, ply, sameSide, alpha, beta);
+                }
+            }
+            board.undo();
+            if (half == SPEAR_HALF) {
+                board.moveQueen(queenMove);
+            }
+            if (_stopped) {
+                return 0;
+            }
+            if (value > best || bestMove == 0) {
+                best = value;
+                bestMove = moves[i];
+                if (saveMove) {
+                    _lastFoundMove = _split ? _rootSpearMove : bestMove;
+                } else if (rootSpear) {
+                    _rootSpearMove = bestMove;
+                }
+            }
+            alpha = Math.max(alpha, value);
+            if (alpha >= beta) {
+                recordCutoff(moves[i], depth, ply, side, half, i == 0);
+                break;
+            }
+        }
+        int bound = best <= alpha0 ? TranspositionTable.UPPER
+            : best >= beta ? TranspositionTable.LOWER
+            : TranspositionTable.EXACT;
+        _table.store(key, depth, bound, best, bestMove);
+        return best;
+    }
+
+    /** Return the value, for the side to move at the parent node, of
+     *  BOARD searched as a child of a node searched to DEPTH at PLY, with
+     *  the parent's window ALPHA..BETA.  SAMESIDE is true iff the same
+     *  side is to move at the parent and the child (that is, the parent
+     *  chose a queen move in split-ply mode). */
+    private int child(Board board, int depth, int ply, boolean sameSide,
+                      int alpha, int beta) {
+        if (sameSide) {
+            return findMove(board, depth - 1, ply + 1, false, alpha, beta);
+        } else {
+            return -findMove(board, depth - 1, ply + 1, false, -beta, -alpha);
+        }
+    }
+
+    /** Make MOVE, the part of a move given by HALF, on BOARD. */
+    private static void makeMove(Board board, int move, int half) {
+        switch (half) {
+        case QUEEN_HALF:
+            board.moveQueen(move);
+            break;
+        case SPEAR_HALF:
+            board.throwSpear(Move.spearIndex(move));
+            break;
+        default:
+            board.makeMove(move);
+            break;
+        }
+    }
+
+    /** Sort the first N entries of MOVES, for SIDE, into the order in
+     *  which to search them: first TTMOVE, the best move recorded in the
+     *  transposition table (if any), then the killer moves KILLERS (moves
+     *  that caused cutoffs at the same ply elsewhere in the tree), then
+     *  the rest by decreasing history score.  HALF tells which parts of
+     *  the moves are being chosen.  KEYS is scratch space of at least N
+     *  entries. */
+    private void orderMoves(int[] moves, int n, long[] keys, int ttMove,
+                            int[] killers, Piece side, int half) {
+        int base = historyBase(side);
+        for (int i = 0; i < n; i += 1) {
+            int move = moves[i];
+            int score;
+            if (move == ttMove) {
+                score = TT_MOVE_SCORE;
+            } else if (move == killers[0]) {
+                score = KILLER_SCORE;
+            } else if (move == killers[1]) {
+                score = KILLER_SCORE - 1;
+            } else {
+                score = 0;
+                if (half != SPEAR_HALF) {
+                    score += _queenHistory[base + queenIndex(move)];
+                }
+                if (half != QUEEN_HALF) {
+                    score += _spearHistory[base + spearIndex(move)];
+                }
+            }
+            keys[i] = ((long) (TT_MOVE_SCORE - score) << Integer.SIZE)
+                | (move & UNSIGNED_MASK);
+        }
+        Arrays.sort(keys, 0, n);
+        for (int i = 0; i < n; i += 1) {
+            moves[i] = (int) keys[i];
+        }
+    }
+
+    /** Record that MOVE, by SIDE, caused a beta cutoff at a node
+     *  searched to DEPTH at PLY, crediting the killer and history tables
+     *  for the parts of MOVE given by HALF.  FIRST is true iff MOVE was
+     *  the first move searched there. */
+    private void recordCutoff(int move, int depth, int ply, Piece side,
+                              int half, boolean first) {
+        _cutoffs += 1;
+        if (first) {
+            _firstMoveCutoffs += 1;
+        }
+        int[] killers = _killers[ply];
+        if (killers[0] != move) {
+            killers[1] = killers[0];
+            killers[0] = move;
+        }
+        int base = historyBase(side);
+        int bonus = depth * depth;
+        if (half != SPEAR_HALF) {
+            int q = base + queenIndex(move);
+            _queenHistory[q] =
+                Math.min(HISTORY_LIMIT, _queenHistory[q] + bonus);
+        }
+        if (half != QUEEN_HALF) {
+            int s = base + spearIndex(move);
+            _spearHistory[s] =
+                Math.min(HISTORY_LIMIT, _spearHistory[s] + bonus);
+        }
+    }
+
+    /** Return the index of SIDE's first entry in a history table. */
+    private static int historyBase(Piece side) {
+        return side == WHITE ? 0 : HISTORY_SIZE;
+    }
+
+    /** Return the index in a history table of the queen move (from and to
+     *  squares) of the packed MOVE, for White. */
+    private static int queenIndex(int move) {
+        return Move.fromIndex(move) * Board.SIZE * Board.SIZE
+            + Move.toIndex(move);
+    }
+
+    /** Return the index in a history table of the spear throw (to and
+     *  spear squares) of the packed MOVE, for White. */
+    private static int spearIndex(int move) {
+        return Move.toIndex(move) * Board.SIZE * Board.SIZE
+            + Move.spearIndex(move);
+    }
+
+    /** Rotate the first N entries of MOVES left by K places, in place. */
+    private static void rotate(int[] moves, int n, int k) {
+        reverse(moves, 0, k);
+        reverse(moves, k, n);
+        reverse(moves, 0, n);
+    }
+
+    /** Reverse MOVES[LO .. HI-1] in place. */
+    private static void reverse(int[] moves, int lo, int hi) {
+        for (hi -= 1; lo < hi; lo += 1, hi -= 1) {
+            int tmp = moves[lo];
+            moves[lo] = moves[hi];
+            moves[hi] = tmp;
+        }
+    }
+
+    /** Return the static value of BOARD from the point of view of the
+     *  side to move. */
+    private int score(Board board) {
+        int score;
+        if (_evalCache == null) {
+            score = _evaluator.evaluate(board);
+        } else {
+            long key = board.hash();
+            score = _evalCache.probe(key);
+            if (score == EvalCache.MISSING) {
+                score = _evaluator.evaluate(board);
+                _evalCache.store(key, score);
+            }
+        }
+        return board.turn() == WHITE ? score : -score;
+    }
+
+    /** The clock is checked once every CLOCK_CHECK_MASK + 1 nodes. */
+    private static final int CLOCK_CHECK_MASK = (1 << 10) - 1;
+
+    /** The parts of a move chosen at a node: the whole move, or in
+     *  split-ply mode, the queen move or the spear throw. */
+    private static final int WHOLE_MOVE = 0, QUEEN_HALF = 1, SPEAR_HALF = 2;
+
+    /** Number of entries for each side in a history table. */
+    private static final int HISTORY_SIZE =
+        Board.SIZE * Board.SIZE * Board.SIZE * Board.SIZE;
+
+    /** Largest history score, kept well below the killer scores. */
+    private static final int HISTORY_LIMIT = 1 << 28;
+
+    /** Ordering scores of the transposition-table move and of the first
+     *  killer move. */
+    private static final int TT_MOVE_SCORE = Integer.MAX_VALUE,
+        KILLER_SCORE = Integer.MAX_VALUE - 2;
+
+    /** Mask selecting a packed move from an ordering key. */
+    private static final long UNSIGNED_MASK = 0xffffffffL;
+
+    /** Half the width of the first aspiration window, and the factor by
+     *  which it grows each time the value falls outside. */
+    private static final int ASPIRATION_WINDOW = 32, ASPIRATION_GROWTH = 4;
+
+    /** Helper number k rotates the root moves by k * HELPER_ROTATION
+     *  places. */
+    private static final int HELPER_ROTATION = 97;
+
+    /** The shared transposition table. */
+    private final TranspositionTable _table;
+    /** The shared clock. */
+    private final TimeManager _clock;
+    /** My static evaluator. */
+    private final Evaluator _evaluator = new Evaluator();
+    /** The shared cache of static values, or null. */
+    private EvalCache _evalCache;
+    /** My copy of the position being searched. */
+    private final Board _board = new Board();
+    /** Move buffers for findMove: _moves[d] holds the moves generated
+     *  at a node searched to depth d. */
+    private final int[][] _moves = new int[MAX_DEPTH + 1][Board.MAX_MOVES];
+    /** Scratch space for ordering the moves in _moves. */
+    private final long[][] _sortKeys =
+        new long[MAX_DEPTH + 1][Board.MAX_MOVES];
+    /** _killers[p] holds the last two distinct moves that caused cutoffs
+     *  at ply p. */
+    private final int[][] _killers = new int[MAX_DEPTH + 1][2];
+    /** History scores of queen moves and spear throws that caused
+     *  cutoffs: White's (see queenIndex and spearIndex), then Black's. */
+    private final int[] _queenHistory = new int[2 * HISTORY_SIZE],
+        _spearHistory = new int[2 * HISTORY_SIZE];
+
+    /** True iff searching in split-ply mode. */
+    private boolean _split;
+    /** The best move found so far by the search of the spear throws for
+     *  the root move being searched, in split-ply mode. */
+    private int _rootSpearMove;
+    /** My helper number, or 0 for the main search. */
+    private int _helper;
+    /** Fixed search depth, or 0 for a timed search. */
+    private int _depthLimit;
+    /** True iff the current search has been stopped or ran out of
+     *  time. */
+    private volatile boolean _stopped;
+    /** Nodes visited since the last setPosition. */
+    private long _nodes;
+    /** Beta cutoffs, and those caused by the first move searched, since
+     *  the last setPosition. */
+    private long _cutoffs, _firstMoveCutoffs;
+    /** Root searches repeated because the value fell outside the
+     *  aspiration window, since the last setPosition. */
+    private long _aspirationFailures;
+    /** The best move found so far by the last call to findMove with
+     *  SAVEMOVE. */
+    private int _lastFoundMove;
+    /** Best move, value, and depth of the last complete search. */
+    private int _bestMove, _bestValue, _depthReached;
+}
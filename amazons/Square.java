@@ -63,25 +63,16 @@ final class Square {
      *  northwest. If DIR has another value, return null. Thus, unless the
      *  result is null the resulting square is a queen move away from me. */
     Square queenMove(int dir, int steps) {
-        int row = this.row();
-        int col = this.col();
         if (dir > 7 || dir < 0) {
             return null;
-        } else {
-            try {
-                int dy = DIR[dir][0];
-                int dx = DIR[dir][1];
-                for (int i = 0; i < steps; i += 1) {
-                    row += dx;
-                    col += dy;
-                }
-                Square a = sq(col, row);
-            } catch (IllegalArgumentException x) {
-                return null;
-            }
-            return sq(col, row);
+        } else if (steps == 0) {
+            return this;
         }
-
+        int[] ray = RAYS[_index][dir];
+        if (steps < 0 || steps > ray.length) {
+            return null;
+        }
+        return SQUARES[ray[steps - 1]];
     }
 
     /**
@@ -91,18 +82,40 @@ final class Square {
      * @return true or false.
      */
     boolean legalQueenMove(int dir, Square s) {
-        int row = this.row();
-        int col = this.col();
-        int sRow = s.row();
-        int sCol = s.col();
-        int dx = DIR[dir][0];
-        int dy = DIR[dir][1];
-        boolean good = true;
-        while (row != sRow || col != sCol) {
-            row += dy;
-            col += dx;
+        for (int index : RAYS[_index][dir]) {
+            if (index == s._index) {
+                return true;
+            }
         }
-        return good;
+        return false;
+    }
+
+    /** Return the indices of the squares in direction DIR (as for
+     *  queenMove) from the square whose index is INDEX, nearest first and
+     *  ending at the edge of the board.  The result must not be
+     *  modified. */
+    static int[] ray(int index, int dir) {
+        return RAYS[index][dir];
+    }
+
+    /** The number of symmetries of the board (see transform). */
+    static final int SYMMETRIES = 8;
+
+    /** Return the index of the image of the square whose index is INDEX
+     *  under the board symmetry SYMMETRY, where 0 <= SYMMETRY <
+     *  SYMMETRIES: the square is reflected in the diagonal a1-j10 if bit
+     *  2 of SYMMETRY is set, then left to right if bit 0 is set, then top
+     *  to bottom if bit 1 is set.  Symmetry 0 is the identity. */
+    static int transform(int index, int symmetry) {
+        return TRANSFORMS[symmetry][index];
+    }
+
+    /** Return the symmetry that undoes SYMMETRY. */
+    static int inverse(int symmetry) {
+        if ((symmetry & 4) == 0) {
+            return symmetry;
+        }
+        return 4 | (symmetry & 1) << 1 | (symmetry & 2) >> 1;
     }
 
     /** Return the direction (an int as defined in the documentation
@@ -202,10 +215,53 @@ final class Square {
     /** SQUARES viewed as a List. */
     private static final List<Square> SQUARE_LIST = Arrays.asList(SQUARES);
 
+    /** RAYS[i][d] lists the indices of the squares in direction d
+     *  from square i, nearest first. */
+    private static final int[][][] RAYS =
+        new int[Board.SIZE * Board.SIZE][DIR.length][];
+
+    /** TRANSFORMS[s][i] is the index of the image of square i under
+     *  symmetry s (see transform). */
+    private static final int[][] TRANSFORMS =
+        new int[SYMMETRIES][Board.SIZE * Board.SIZE];
+
     static {
         for (int i = Board.SIZE * Board.SIZE - 1; i >= 0; i -= 1) {
             SQUARES[i] = new Square(i);
         }
+        for (int s = 0; s < SYMMETRIES; s += 1) {
+            for (int i = 0; i < Board.SIZE * Board.SIZE; i += 1) {
+                int col = i % Board.SIZE, row = i / Board.SIZE;
+                if ((s & 4) != 0) {
+                    int t = col;
+                    col = row;
+                    row = t;
+                }
+                if ((s & 1) != 0) {
+                    col = Board.SIZE - 1 - col;
+                }
+                if ((s & 2) != 0) {
+                    row = Board.SIZE - 1 - row;
+                }
+                TRANSFORMS[s][i] = row * Board.SIZE + col;
+            }
+        }
+        int[] ray = new int[Board.SIZE];
+        for (int i = 0; i < RAYS.length; i += 1) {
+            for (int dir = 0; dir < DIR.length; dir += 1) {
+                int col = i % Board.SIZE, row = i / Board.SIZE;
+                int n;
+                for (n = 0; ; n += 1) {
+                    col += DIR[dir][0];
+                    row += DIR[dir][1];
+                    if (!exists(col, row)) {
+                        break;
+                    }
+                    ray[n] = row * Board.SIZE + col;
+                }
+                RAYS[i][dir] = Arrays.copyOf(ray, n);
+            }
+        }
     }
 
     /**
@@ -0,0 +1,787 @@
+package amazons;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.atomic.LongAdder;
+
+import static amazons.Piece.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/** A table of the exact values of all small regions holding one amazon,
+ *  or one amazon of each color, computed in advance and kept in a file.
+ *
+ *  A region's value depends only on its shape and on where its amazons
+ *  stand, not on where it is on the board.  Shapes are therefore
+ *  described by their squares, amazons included, moved as far south and
+ *  west as possible and numbered as on a board with SHAPE_SIZE columns,
+ *  giving a set of at most SHAPE_SIZE * SHAPE_SIZE = 64 cells.
+ *
+ *  The value of a region holding one amazon is the number of moves it
+ *  can make there and a best first move (see EndgameSolver).  A region
+ *  holding one amazon of each color is a real fight, but everything
+ *  else on a board whose other regions are single-colored is just a
+ *  number of moves that each side can make whenever it likes.  A side
+ *  that moves first wins such a board iff its lead, the number of moves
+ *  it can make in its own regions less the number its opponent can make
+ *  in theirs, is at least the least lead it needs to win the fight,
+ *  which is therefore the value recorded for each side, together with a
+ *  best first move in the region, if moving there achieves it.  Moving
+ *  elsewhere does better only when the region holds no good move.  The
+ *  values of fights are found from those of smaller fights, since a
+ *  move always leaves a smaller one, or none.
+ *
+ *  The file holds a header of HEADER_BYTES bytes (MAGIC, the largest
+ *  number of squares in a region with one amazon, the number of such
+ *  regions, the largest number of squares in a fight, and the number of
+ *  fights).  Then comes one RECORD_BYTES record for each shape of at
+ *  most that many squares and each position of the amazon in it: the
+ *  set of cells (8 bytes), the amazon's cell, the number of moves, and
+ *  the cells moved to and thrown to by a best first move (1 byte each).
+ *  Then comes one PAIR_BYTES record for each fight: the set of cells (8
+ *  bytes), the cells of the White and the Black amazon, the leads needed
+ *  by White and by Black (signed), and the cells moved to and thrown to
+ *  by a best first move in the region for White and for Black (1 byte
+ *  each, and both NO_CELL if there is none).  Both kinds of records are
+ *  sorted by set of cells, as an unsigned number, and then by amazons'
+ *  cells, so that they can be found by binary search.
+ *
+ *  The file is written as it is computed, in that order, so that build
+ *  needs memory only for the shapes and the fights.  It is mapped into
+ *  memory read-only and searched in place, so that opening it costs
+ *  nothing and the operating system shares one copy among all the
+ *  processes using it.  Lookups use absolute reads only, so any number
+ *  of threads may share one Tablebase.
+ *
+ *  To build a table of regions of up to N squares, run
+ *      java amazons.Tablebase FILE N
+ *  @author John Schulz
+ */
+final class Tablebase {
+
+    /** The first four bytes of a tablebase file. */
+    static final int MAGIC = 0x414d5432;
+
+    /** Bytes in the header. */
+    static final int HEADER_BYTES = 24;
+
+    /** Bytes in a record of a region with one amazon. */
+    static final int RECORD_BYTES = 12;
+
+    /** Bytes in a record of a fight. */
+    static final int PAIR_BYTES = 16;
+
+    /** The number of columns and rows of cells within which shapes are
+     *  described. */
+    static final int SHAPE_SIZE = 8;
+
+    /** The largest number of squares in a region with one amazon that a
+     *  table may hold.  There are about seven times as many records for
+     *  each square more: 9.7 million for 9 squares. */
+    static final int MAX_SQUARES = 9;
+
+    /** The largest number of squares in a fight that a table may hold.
+     *  build keeps all the fights in memory, 16 bytes each, and there are
+     *  about 9 million of up to 8 squares, and 70 million more of 9. */
+    static final int MAX_PAIR_SQUARES = 8;
+
+    /** The result of probe or probePair for a region that is not in the
+     *  table (the same as for a RegionTable). */
+    static final long MISSING = RegionTable.MISSING;
+
+    /** Build the table of regions of up to ARGS[1] squares and write it
+     *  to the file ARGS[0]. */
+    public static void main(String... args) {
+        if (args.length != 2) {
+            System.err.println("Usage: java amazons.Tablebase FILE N");
+            System.exit(1);
+        }
+        try {
+            int records = build(Paths.get(args[0]),
+                                Integer.parseInt(args[1]));
+            System.out.printf("%d regions written.%n", records);
+        } catch (IOException | IllegalArgumentException excp) {
+            System.err.printf("Could not build tablebase: %s%n",
+                              excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Write the table of all regions of up to MAXSQUARES squares with
+     *  one amazon, and of all fights of up to the smaller of MAXSQUARES
+     *  and MAX_PAIR_SQUARES squares, to the file PATH, replacing any file
+     *  there.  Return the number of records written. */
+    static int build(Path path, int maxSquares) throws IOException {
+        if (maxSquares < 1 || maxSquares > MAX_SQUARES) {
+            throw Utils.error("region size must be between 1 and %d",
+                              MAX_SQUARES);
+        }
+        Builder builder =
+            new Builder(shapes(maxSquares),
+                        Math.min(maxSquares, MAX_PAIR_SQUARES));
+        builder.solveFights();
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(path),
+                                          WRITE_BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(maxSquares);
+            out.writeLong(builder.records());
+            out.writeInt(builder.pairSquares());
+            out.writeInt(builder.pairs());
+            builder.writeRegions(out);
+            builder.writeFights(out);
+        }
+        return builder.records() + builder.pairs();
+    }
+
+    /** Return a Tablebase for the table in the file PATH. */
+    static Tablebase open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("not a tablebase: " + path);
+            }
+            MappedByteBuffer data =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.getInt(0) != MAGIC) {
+                throw new IOException("not a tablebase: " + path);
+            }
+            int maxSquares = data.getInt(Integer.BYTES);
+            long records = data.getLong(2 * Integer.BYTES);
+            int pairSquares = data.getInt(4 * Integer.BYTES);
+            long pairs = data.getInt(5 * Integer.BYTES);
+            if (maxSquares < 1 || maxSquares > MAX_SQUARES
+                || pairSquares > Math.min(maxSquares, MAX_PAIR_SQUARES)
+                || HEADER_BYTES + RECORD_BYTES * records
+                   + PAIR_BYTES * pairs != channel.size()) {
+                throw new IOException("damaged tablebase: " + path);
+            }
+            return new Tablebase(data, maxSquares, (int) records,
+                                 pairSquares, (int) pairs);
+        }
+    }
+
+    /** A table of MAXSQUARES-square regions with one amazon held in the
+     *  RECORDS records of DATA, followed by PAIRS records of fights of up
+     *  to PAIRSQUARES squares. */
+    private Tablebase(MappedByteBuffer data, int maxSquares, int records,
+                      int pairSquares, int pairs) {
+        _data = data;
+        _maxSquares = maxSquares;
+        _records = records;
+        _pairSquares = pairSquares;
+        _pairs = pairs;
+        _pairStart = HEADER_BYTES + RECORD_BYTES * records;
+    }
+
+    /** Return the largest number of squares in the regions with one
+     *  amazon that I hold. */
+    int maxSquares() {
+        return _maxSquares;
+    }
+
+    /** Return the largest number of squares in the fights I hold. */
+    int pairSquares() {
+        return _pairSquares;
+    }
+
+    /** Return the number of records. */
+    int size() {
+        return _records + _pairs;
+    }
+
+    /** Return the value of the region of a board whose empty squares are
+     *  the set LO, HI (two words, as in Board) and whose one amazon is
+     *  on the square whose index is AMAZON, or MISSING if I do not hold
+     *  it.  The value is packed as for EndgameSolver.regionValue: the
+     *  number of moves the amazon can make in the high word, and a best
+     *  first move (packed, and 0 if there is none) in the low word. */
+    long probe(long lo, long hi, int amazon) {
+        int squares = 1 + Long.bitCount(lo) + Long.bitCount(hi);
+        int corner = corner(lo, hi, amazon, amazon);
+        if (squares > _maxSquares || corner < 0) {
+            return MISSING;
+        }
+        int col0 = corner % Board.SIZE, row0 = corner / Board.SIZE;
+        long shape = cells(lo, hi, col0, row0)
+            | 1L << cell(amazon, col0, row0);
+        int r = find(shape, cell(amazon, col0, row0));
+        if (r < 0) {
+            _misses.increment();
+            return MISSING;
+        }
+        _hits.increment();
+        int pos = HEADER_BYTES + r * RECORD_BYTES + Long.BYTES;
+        int moves = _data.get(pos + 1);
+        if (moves == 0) {
+            return 0;
+        }
+        int move = Move.pack(amazon, square(_data.get(pos + 2), col0, row0),
+                             square(_data.get(pos + 3), col0, row0));
+        return (long) moves << Integer.SIZE | move;
+    }
+
+    /** Return the value for SIDE, moving first, of the fight on a board
+     *  whose empty squares are the set LO, HI, whose White amazon is on
+     *  the square whose index is WHITE, and whose Black amazon is on the
+     *  square whose index is BLACK, or MISSING if I do not hold it.  The
+     *  lead SIDE needs to win (see the class comment) is in the high
+     *  word, and its best first move in the region (packed, and 0 if
+     *  there is none) in the low word. */
+    long probePair(long lo, long hi, int white, int black, Piece side) {
+        int squares = 2 + Long.bitCount(lo) + Long.bitCount(hi);
+        int corner = corner(lo, hi, white, black);
+        if (squares > _pairSquares || corner < 0) {
+            return MISSING;
+        }
+        int col0 = corner % Board.SIZE, row0 = corner / Board.SIZE;
+        long shape = cells(lo, hi, col0, row0)
+            | 1L << cell(white, col0, row0) | 1L << cell(black, col0, row0);
+        int r = findPair(shape, cell(white, col0, row0) << Byte.SIZE
+                         | cell(black, col0, row0));
+        if (r < 0) {
+            _misses.increment();
+            return MISSING;
+        }
+        _hits.increment();
+        int pos = _pairStart + r * PAIR_BYTES + Long.BYTES;
+        int us = side == WHITE ? 0 : 1;
+        long need = _data.get(pos + 2 + us);
+        int to = _data.get(pos + 4 + 2 * us) & BYTE_MASK,
+            spear = _data.get(pos + 5 + 2 * us) & BYTE_MASK;
+        if (to == NO_CELL) {
+            return need << Integer.SIZE;
+        }
+        int move = Move.pack(side == WHITE ? white : black,
+                             square(to, col0, row0),
+                             square(spear, col0, row0));
+        return need << Integer.SIZE | move;
+    }
+
+    /** Return the number of probes that found their region. */
+    long hits() {
+        return _hits.sum();
+    }
+
+    /** Return the number of probes of regions small enough to be in the
+     *  table that did not. */
+    long misses() {
+        return _misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("tablebase of %d-square regions and %d-square"
+                             + " fights: %d records, %d hits, %d misses",
+                             _maxSquares, _pairSquares, size(), hits(),
+                             misses());
+    }
+
+    /** Return the number of the record for the shape SHAPE with its
+     *  amazon on cell AMAZON, or -1 if there is none. */
+    private int find(long shape, int amazon) {
+        int low = 0, high = _records - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int pos = HEADER_BYTES + mid * RECORD_BYTES;
+            int cmp = Long.compareUnsigned(_data.getLong(pos), shape);
+            if (cmp == 0) {
+                cmp = Integer.compare(_data.get(pos + Long.BYTES), amazon);
+            }
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the number of the record for the fight in the shape SHAPE
+     *  whose amazons' cells are AMAZONS (that of the White amazon in the
+     *  second byte and that of the Black one in the first), or -1 if
+     *  there is none. */
+    private int findPair(long shape, int amazons) {
+        int low = 0, high = _pairs - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int pos = _pairStart + mid * PAIR_BYTES;
+            int cmp = Long.compareUnsigned(_data.getLong(pos), shape);
+            if (cmp == 0) {
+                cmp = Integer.compare(_data.getShort(pos + Long.BYTES)
+                                      & SHORT_MASK, amazons);
+            }
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the index of the square in the westmost column and
+     *  southmost row of the squares in the set LO, HI and the squares
+     *  whose indices are A and B, or -1 if they do not fit in
+     *  SHAPE_SIZE columns and rows. */
+    private static int corner(long lo, long hi, int a, int b) {
+        int col0 = Math.min(a % Board.SIZE, b % Board.SIZE),
+            col1 = Math.max(a % Board.SIZE, b % Board.SIZE),
+            row0 = Math.min(a / Board.SIZE, b / Board.SIZE),
+            row1 = Math.max(a / Board.SIZE, b / Board.SIZE);
+        for (int word = 0; word < 2; word += 1) {
+            for (long rest = word == 0 ? lo : hi; rest != 0;
+                 rest &= rest - 1) {
+                int sq = word * Long.SIZE + Long.numberOfTrailingZeros(rest);
+                col0 = Math.min(col0, sq % Board.SIZE);
+                col1 = Math.max(col1, sq % Board.SIZE);
+                row0 = Math.min(row0, sq / Board.SIZE);
+                row1 = Math.max(row1, sq / Board.SIZE);
+            }
+        }
+        if (col1 - col0 >= SHAPE_SIZE || row1 - row0 >= SHAPE_SIZE) {
+            return -1;
+        }
+        return row0 * Board.SIZE + col0;
+    }
+
+    /** Return the set of the cells of the squares in the set LO, HI, in
+     *  a shape whose westmost column is COL0 and southmost row ROW0. */
+    private static long cells(long lo, long hi, int col0, int row0) {
+        long result = 0;
+        for (int word = 0; word < 2; word += 1) {
+            for (long rest = word == 0 ? lo : hi; rest != 0;
+                 rest &= rest - 1) {
+                int sq = word * Long.SIZE + Long.numberOfTrailingZeros(rest);
+                result |= 1L << cell(sq, col0, row0);
+            }
+        }
+        return result;
+    }
+
+    /** Return the cell of the square whose index is SQ, in a shape whose
+     *  westmost column is COL0 and southmost row ROW0. */
+    private static int cell(int sq, int col0, int row0) {
+        return (sq / Board.SIZE - row0) * SHAPE_SIZE + sq % Board.SIZE - col0;
+    }
+
+    /** Return the index of the square of cell CELL, in a shape whose
+     *  westmost column is COL0 and southmost row ROW0. */
+    private static int square(int cell, int col0, int row0) {
+        return (cell / SHAPE_SIZE + row0) * Board.SIZE
+            + cell % SHAPE_SIZE + col0;
+    }
+
+    /** Return all shapes of at most MAXSQUARES squares, connected by king
+     *  moves, moved as far south and west as possible, in increasing
+     *  order as unsigned numbers. */
+    private static long[] shapes(int maxSquares) {
+        HashSet<Long> all = new HashSet<>();
+        long[] level = { 1L };
+        all.add(1L);
+        for (int size = 2; size <= maxSquares; size += 1) {
+            HashSet<Long> next = new HashSet<>();
+            for (long shape : level) {
+                for (long rest = shape; rest != 0; rest &= rest - 1) {
+                    int cell = Long.numberOfTrailingZeros(rest);
+                    for (int dir = 0; dir < 8; dir += 1) {
+                        long grown = grow(shape, cell, dir);
+                        if (grown != 0) {
+                            next.add(grown);
+                        }
+                    }
+                }
+            }
+            all.addAll(next);
+            level = next.stream().mapToLong(Long::longValue).toArray();
+        }
+        long[] result =
+            all.stream().mapToLong(s -> s ^ Long.MIN_VALUE).toArray();
+        Arrays.sort(result);
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] ^= Long.MIN_VALUE;
+        }
+        return result;
+    }
+
+    /** Return SHAPE with the square one step in direction DIR from CELL
+     *  added and moved as far south and west as possible, or 0 if that
+     *  square is in SHAPE already or the result does not fit. */
+    private static long grow(long shape, int cell, int dir) {
+        int col = cell % SHAPE_SIZE + DCOLS[dir],
+            row = cell / SHAPE_SIZE + DROWS[dir];
+        int shiftCol = col < 0 ? 1 : 0, shiftRow = row < 0 ? 1 : 0;
+        if (col >= SHAPE_SIZE || row >= SHAPE_SIZE
+            || col >= 0 && row >= 0
+               && (shape & 1L << (row * SHAPE_SIZE + col)) != 0) {
+            return 0;
+        }
+        long result = 0;
+        for (long rest = shape; rest != 0; rest &= rest - 1) {
+            int c = Long.numberOfTrailingZeros(rest);
+            int newCol = c % SHAPE_SIZE + shiftCol,
+                newRow = c / SHAPE_SIZE + shiftRow;
+            if (newCol >= SHAPE_SIZE || newRow >= SHAPE_SIZE) {
+                return 0;
+            }
+            result |= 1L << (newRow * SHAPE_SIZE + newCol);
+        }
+        return result
+            | 1L << ((row + shiftRow) * SHAPE_SIZE + col + shiftCol);
+    }
+
+    /** Computes the records of a table and writes them out. */
+    private static final class Builder {
+
+        /** A builder for the regions with one amazon of the shapes in
+         *  SHAPES, which are in order (see shapes), and for the fights of
+         *  those of up to PAIRSQUARES squares. */
+        Builder(long[] shapes, int pairSquares) {
+            _shapes = shapes;
+            _pairSquares = pairSquares;
+            _fightShapes = new long[pairSquares + 1][];
+            _fights = new long[pairSquares + 1][];
+            for (long shape : shapes) {
+                _records += Long.bitCount(shape);
+            }
+        }
+
+        /** Return the number of records of regions with one amazon. */
+        int records() {
+            return _records;
+        }
+
+        /** Return the largest number of squares in a fight. */
+        int pairSquares() {
+            return _pairSquares;
+        }
+
+        /** Return the number of fights. */
+        int pairs() {
+            return _pairs;
+        }
+
+        /** Find the values of all fights, smallest first. */
+        void solveFights() {
+            for (int size = 2; size <= _pairSquares; size += 1) {
+                int count = 0;
+                for (long shape : _shapes) {
+                    if (Long.bitCount(shape) == size) {
+                        count += size * (size - 1);
+                    }
+                }
+                long[] shapes = new long[count], fights = new long[count];
+                _fightShapes[size] = shapes;
+                _fights[size] = fights;
+                int r = 0;
+                for (long shape : _shapes) {
+                    if (Long.bitCount(shape) != size) {
+                        continue;
+                    }
+                    setUp(shape);
+                    int base = r;
+                    for (long ws = shape; ws != 0; ws &= ws - 1) {
+                        int white = Long.numberOfTrailingZeros(ws);
+                        for (long bs = shape; bs != 0; bs &= bs - 1) {
+                            int black = Long.numberOfTrailingZeros(bs);
+                            if (black < white) {
+                                fights[r] = swapped(
+                                    fights[base + rank(shape, black)
+                                           * (size - 1)
+                                           + rank(shape, white) - 1]);
+                            } else if (black > white) {
+                                fights[r] = fight(white, black);
+                            } else {
+                                continue;
+                            }
+                            shapes[r] = shape;
+                            r += 1;
+                        }
+                    }
+                }
+                _pairs += count;
+            }
+        }
+
+        /** Write the records of all regions with one amazon to OUT. */
+        void writeRegions(DataOutputStream out) throws IOException {
+            for (long shape : _shapes) {
+                setUp(shape);
+                for (long rest = shape; rest != 0; rest &= rest - 1) {
+                    int amazon = Long.numberOfTrailingZeros(rest);
+                    int sq = square(amazon, 0, 0);
+                    _board.put(WHITE, Square.sq(sq));
+                    long value = _solver.regionValue(_board, sq);
+                    _board.put(EMPTY, Square.sq(sq));
+                    int move = (int) value;
+                    out.writeLong(shape);
+                    out.writeByte(amazon);
+                    out.writeByte((int) (value >>> Integer.SIZE));
+                    out.writeByte(move == 0 ? 0
+                                  : cell(Move.toIndex(move), 0, 0));
+                    out.writeByte(move == 0 ? 0
+                                  : cell(Move.spearIndex(move), 0, 0));
+                }
+            }
+        }
+
+        /** Write the records of all fights, found by solveFights, to OUT,
+         *  merging those of different sizes into order. */
+        void writeFights(DataOutputStream out) throws IOException {
+            int[] next = new int[_pairSquares + 1];
+            for (int k = 0; k < _pairs; k += 1) {
+                int size = 0;
+                for (int s = 2; s <= _pairSquares; s += 1) {
+                    if (next[s] < _fights[s].length
+                        && (size == 0
+                            || Long.compareUnsigned(
+                                   _fightShapes[s][next[s]],
+                                   _fightShapes[size][next[size]]) < 0)) {
+                        size = s;
+                    }
+                }
+                out.writeLong(_fightShapes[size][next[size]]);
+                out.writeLong(_fights[size][next[size]]);
+                next[size] += 1;
+            }
+        }
+
+        /** Set _board to be all spears but for the squares of SHAPE,
+         *  placed in its southwest corner. */
+        private void setUp(long shape) {
+            for (int sq = 0; sq < Board.SIZE * Board.SIZE; sq += 1) {
+                _board.put(SPEAR, Square.sq(sq));
+            }
+            for (long rest = shape; rest != 0; rest &= rest - 1) {
+                _board.put(EMPTY, Square.sq(
+                    square(Long.numberOfTrailingZeros(rest), 0, 0)));
+            }
+        }
+
+        /** Return the record (see pair) of the fight on _board, set up
+         *  for its shape, between the White amazon on cell WHITE and the
+         *  Black amazon on cell BLACK. */
+        private long fight(int white, int black) {
+            int[] cells = { white, black };
+            int[] direct = new int[2], best = new int[2];
+            for (int us = 0; us < 2; us += 1) {
+                _board.put(us == 0 ? WHITE : BLACK,
+                           Square.sq(square(cells[us], 0, 0)));
+            }
+            for (int us = 0; us < 2; us += 1) {
+                int from = square(cells[us], 0, 0),
+                    other = square(cells[1 - us], 0, 0);
+                int n = _board.legalMoves(from, _moves, 0);
+                direct[us] = NO_WIN;
+                best[us] = NO_MOVE;
+                for (int i = 0; i < n; i += 1) {
+                    int move = _moves[i];
+                    _board.makeMove(move);
+                    int need = 1 - theirNeed(Move.toIndex(move), other, us);
+                    _board.undo();
+                    if (need < direct[us]) {
+                        direct[us] = need;
+                        best[us] = cell(Move.toIndex(move), 0, 0)
+                            << Byte.SIZE | cell(Move.spearIndex(move), 0, 0);
+                    }
+                }
+            }
+            for (int us = 0; us < 2; us += 1) {
+                _board.put(EMPTY, Square.sq(square(cells[us], 0, 0)));
+            }
+            int whitePass = Math.max(1, 2 - direct[1]),
+                blackPass = Math.max(1, 2 - direct[0]);
+            return pair(white, black, Math.min(direct[0], whitePass),
+                        Math.min(direct[1], blackPass),
+                        direct[0] <= whitePass ? best[0] : NO_MOVE,
+                        direct[1] <= blackPass ? best[1] : NO_MOVE);
+        }
+
+        /** Return the lead the opponent of side US (0 for White and 1 for
+         *  Black), now to move, needs to win on _board, where our amazon
+         *  stands on square MINE and theirs on square THEIRS, and the
+         *  rest of the board counts for nothing. */
+        private int theirNeed(int mine, int theirs, int us) {
+            fill(mine);
+            if (_seen[theirs] != _stamp) {
+                return 1 - moves(theirs) + moves(mine);
+            }
+            int col0 = Board.SIZE, row0 = Board.SIZE;
+            for (int i = 0; i < _found; i += 1) {
+                col0 = Math.min(col0, _queue[i] % Board.SIZE);
+                row0 = Math.min(row0, _queue[i] / Board.SIZE);
+            }
+            long shape = 0;
+            for (int i = 0; i < _found; i += 1) {
+                shape |= 1L << cell(_queue[i], col0, row0);
+            }
+            int white = cell(us == 0 ? mine : theirs, col0, row0),
+                black = cell(us == 0 ? theirs : mine, col0, row0);
+            long fight = lookUp(_found, shape, white << Byte.SIZE | black);
+            return (byte) (fight >>> (us == 0 ? BLACK_NEED : WHITE_NEED));
+        }
+
+        /** Return the number of moves the amazon on the square SQ can make
+         *  in its region of _board, which holds no other amazon. */
+        private int moves(int sq) {
+            return (int) (_solver.regionValue(_board, sq) >>> Integer.SIZE);
+        }
+
+        /** Return the record of the fight of SIZE squares in the shape
+         *  SHAPE whose amazons' cells are AMAZONS (as for findPair). */
+        private long lookUp(int size, long shape, int amazons) {
+            long[] shapes = _fightShapes[size], fights = _fights[size];
+            int low = 0, high = shapes.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = Long.compareUnsigned(shapes[mid], shape);
+                if (cmp == 0) {
+                    cmp = Integer.compare((int) (fights[mid] >>> AMAZONS),
+                                          amazons);
+                }
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return fights[mid];
+                }
+            }
+            throw new IllegalStateException("fight not yet solved");
+        }
+
+        /** Set _found to the number of squares in the region of _board
+         *  containing the square SEED, store them in _queue, and mark
+         *  them with _stamp. */
+        private void fill(int seed) {
+            _stamp += 1;
+            int head = 0, tail = 1;
+            _queue[0] = seed;
+            _seen[seed] = _stamp;
+            while (head < tail) {
+                int sq = _queue[head];
+                head += 1;
+                for (int dir = 0; dir < 8; dir += 1) {
+                    int[] ray = Square.ray(sq, dir);
+                    if (ray.length > 0) {
+                        int next = ray[0];
+                        if (_seen[next] != _stamp
+                            && _board.get(next) != SPEAR) {
+                            _seen[next] = _stamp;
+                            _queue[tail] = next;
+                            tail += 1;
+                        }
+                    }
+                }
+            }
+            _found = tail;
+        }
+
+        /** The shapes of all regions, in order. */
+        private final long[] _shapes;
+        /** The largest number of squares in a fight. */
+        private final int _pairSquares;
+        /** _fights[k] holds the records (see pair) of the fights of k
+         *  squares, in order, and _fightShapes[k] their shapes. */
+        private final long[][] _fights, _fightShapes;
+        /** The numbers of records of regions with one amazon and of
+         *  fights. */
+        private int _records, _pairs;
+        /** Finds the values of regions with one amazon. */
+        private final EndgameSolver _solver =
+            new EndgameSolver(Long.MAX_VALUE, BUILD_MEMO_SIZE);
+        /** The region being solved, in the southwest corner. */
+        private final Board _board = new Board();
+        /** Legal moves of one amazon. */
+        private final int[] _moves = new int[Board.MAX_MOVES];
+        /** The squares found by fill. */
+        private final int[] _queue = new int[Board.SIZE * Board.SIZE];
+        /** _seen[s] == _stamp iff fill has reached square s. */
+        private final int[] _seen = new int[Board.SIZE * Board.SIZE];
+        /** The mark of the last fill, and the number of squares it
+         *  found. */
+        private int _stamp, _found;
+    }
+
+    /** Return the rank of CELL among the cells of SHAPE. */
+    private static int rank(long shape, int cell) {
+        return Long.bitCount(shape & ((1L << cell) - 1));
+    }
+
+    /** Return the last 8 bytes of the record of a fight between the White
+     *  amazon on cell WHITE and the Black amazon on cell BLACK, with
+     *  WHITENEED and BLACKNEED the leads that White and Black need, and
+     *  WHITEBEST and BLACKBEST their best first moves in the region (the
+     *  cell moved to, times 256, plus the cell thrown to), or NO_MOVE. */
+    private static long pair(int white, int black, int whiteNeed,
+                             int blackNeed, int whiteBest, int blackBest) {
+        return (long) white << WHITE_CELL | (long) black << BLACK_CELL
+            | (long) (whiteNeed & BYTE_MASK) << WHITE_NEED
+            | (long) (blackNeed & BYTE_MASK) << BLACK_NEED
+            | (long) whiteBest << WHITE_BEST | blackBest;
+    }
+
+    /** Return the record (see pair) of the fight FIGHT with the colors of
+     *  the amazons exchanged. */
+    private static long swapped(long fight) {
+        return pair((int) (fight >>> BLACK_CELL) & BYTE_MASK,
+                    (int) (fight >>> WHITE_CELL),
+                    (byte) (fight >>> BLACK_NEED),
+                    (byte) (fight >>> WHITE_NEED),
+                    (int) fight & SHORT_MASK,
+                    (int) (fight >>> WHITE_BEST) & SHORT_MASK);
+    }
+
+    /** Positions of the fields of a record of a fight (see pair). */
+    private static final int WHITE_CELL = 56, BLACK_CELL = 48,
+        AMAZONS = BLACK_CELL, WHITE_NEED = 40, BLACK_NEED = 32,
+        WHITE_BEST = 16;
+
+    /** The cell recorded for a move that does not exist. */
+    private static final int NO_CELL = 0xff;
+
+    /** The recorded best move in a fight when there is none. */
+    private static final int NO_MOVE = NO_CELL << Byte.SIZE | NO_CELL;
+
+    /** More than the lead any side could need to win a fight. */
+    private static final int NO_WIN = Byte.MAX_VALUE;
+
+    /** Masks for a byte and a short. */
+    private static final int BYTE_MASK = 0xff, SHORT_MASK = 0xffff;
+
+    /** Size of the table of region values used while building, in
+     *  megabytes. */
+    private static final int BUILD_MEMO_SIZE = 64;
+
+    /** Size of the buffer for writing a table, in bytes. */
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    /** The changes in column and row of a step in each direction. */
+    private static final int[]
+        DCOLS = { 0, 1, 1, 1, 0, -1, -1, -1 },
+        DROWS = { 1, 1, 0, -1, -1, -1, 0, 1 };
+
+    /** The mapped file. */
+    private final MappedByteBuffer _data;
+    /** The largest number of squares in the regions with one amazon and
+     *  in the fights held. */
+    private final int _maxSquares, _pairSquares;
+    /** The numbers of records of regions with one amazon and of
+     *  fights. */
+    private final int _records, _pairs;
+    /** The position in _data of the first record of a fight. */
+    private final int _pairStart;
+    /** Probe counters. */
+    private final LongAdder _hits = new LongAdder(),
+        _misses = new LongAdder();
+}
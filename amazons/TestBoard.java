@@ -2,6 +2,9 @@ package amazons;
 
 import org.junit.Test;
 
+import java.util.Iterator;
+import java.util.Random;
+
 import static org.junit.Assert.*;
 
 /**
@@ -58,6 +61,182 @@ public class TestBoard {
         m.put(Piece.WHITE, Square.sq(12));
         assertFalse(m.isLegal(Square.sq(3), Square.sq(21)));
     }
+    /**
+     * Test the piece counts and that undo restores the position.
+     */
+    @Test
+    public void testCountAndUndo() {
+        m = new Board();
+        String start = m.toString();
+        assertEquals(4, m.count(Piece.WHITE));
+        assertEquals(4, m.count(Piece.BLACK));
+        assertEquals(92, m.count(Piece.EMPTY));
+        m.makeMove(Square.sq(3), Square.sq(73), Square.sq(79));
+        assertEquals(Piece.WHITE, m.get(73));
+        assertEquals(Piece.SPEAR, m.get(79));
+        assertEquals(1, m.count(Piece.SPEAR));
+        assertEquals(91, m.count(Piece.EMPTY));
+        m.undo();
+        assertEquals(start, m.toString());
+        assertEquals(0, m.numMoves());
+        assertEquals(0, m.count(Piece.SPEAR));
+    }
+
+    /**
+     * Test that the incrementally maintained hash matches a hash computed
+     * from scratch, and is restored by undo and kept by copy.
+     */
+    @Test
+    public void testHash() {
+        m = new Board();
+        long start = m.hash();
+        assertEquals(m.computeHash(), start);
+        m.makeMove(Move.mv("d1-d7(g7)"));
+        assertEquals(m.computeHash(), m.hash());
+        assertNotEquals(start, m.hash());
+        m.makeMove(Move.mv("d10-c9(h4)"));
+        assertEquals(m.computeHash(), m.hash());
+        assertEquals(m.hash(), new Board(m).hash());
+        m.undo();
+        m.undo();
+        assertEquals(start, m.hash());
+        m.put(Piece.SPEAR, Square.sq(44));
+        assertEquals(m.computeHash(), m.hash());
+    }
+
+    /**
+     * Test making moves in halves with moveQueen and throwSpear, and
+     * that queen moves and spear throws together give the legal moves.
+     */
+    @Test
+    public void testHalfMoves() {
+        m = new Board();
+        Board full = new Board();
+        int move = Move.mv("d1-d7(g7)").packed();
+        full.makeMove(move);
+        m.moveQueen(move);
+        assertEquals(Move.pack(3, 63, 0), m.pendingQueenMove());
+        assertEquals(Piece.WHITE, m.turn());
+        assertEquals(m.computeHash(), m.hash());
+        assertNotEquals(full.hash(), m.hash());
+        m.throwSpear(Move.spearIndex(move));
+        assertEquals(0, m.pendingQueenMove());
+        assertEquals(full.hash(), m.hash());
+        assertEquals(full.toString(), m.toString());
+        m.moveQueen(Move.mv("d10-c9(h4)").packed());
+        m.undo();
+        m.undo();
+        assertEquals(new Board().hash(), m.hash());
+        assertEquals(0, m.numMoves());
+
+        int[] queens = new int[Board.MAX_QUEEN_MOVES];
+        int[] spears = new int[Board.MAX_MOVES];
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = m.legalMoves(Piece.WHITE, moves);
+        int total = 0;
+        for (int i = 0, q = m.queenMoves(Piece.WHITE, queens); i < q;
+             i += 1) {
+            m.moveQueen(queens[i]);
+            int k = m.spearThrows(spears);
+            for (int j = 0; j < k; j += 1) {
+                assertEquals(moves[total + j], spears[j]);
+            }
+            total += k;
+            m.undo();
+        }
+        assertEquals(n, total);
+    }
+
+    /**
+     * Check that the amazon lists and mobilities of B agree with its
+     * contents.
+     */
+    private static void checkMobility(Board b) {
+        int[] queens = new int[Board.SIZE * Board.SIZE];
+        for (Piece side : new Piece[] { Piece.WHITE, Piece.BLACK }) {
+            int total = 0;
+            int n = b.queens(side, queens);
+            assertEquals(b.count(side), n);
+            for (int i = 0; i < n; i += 1) {
+                assertEquals(side, b.get(queens[i]));
+                int moves = 0;
+                Iterator<Square> reach =
+                    b.reachableFrom(Square.sq(queens[i]), null);
+                while (reach.hasNext()) {
+                    reach.next();
+                    moves += 1;
+                }
+                assertEquals(moves, b.mobility(queens[i]));
+                total += moves;
+            }
+            assertEquals(total, b.mobility(side));
+        }
+    }
+
+    /**
+     * Test that Board keeps its amazon lists and mobilities current
+     * through moves, half moves, undos, puts, and copies.
+     */
+    @Test
+    public void testMobility() {
+        Random random = new Random(61);
+        int[] moves = new int[Board.MAX_MOVES];
+        m = new Board();
+        checkMobility(m);
+        while (m.winner() == null) {
+            int move = moves[random.nextInt(m.legalMoves(m.turn(), moves))];
+            if (random.nextBoolean()) {
+                m.makeMove(move);
+            } else {
+                m.moveQueen(move);
+                checkMobility(m);
+                m.throwSpear(Move.spearIndex(move));
+            }
+            checkMobility(m);
+            if (random.nextInt(4) == 0) {
+                m.undo();
+                checkMobility(m);
+                m.makeMove(move);
+            }
+        }
+        checkMobility(new Board(m));
+        m.put(Piece.WHITE, Square.sq(0));
+        m.put(Piece.SPEAR, Square.sq(0));
+        checkMobility(m);
+        while (m.numMoves() > 0) {
+            m.undo();
+        }
+        checkMobility(m);
+        m.init();
+        checkMobility(m);
+    }
+
+    /**
+     * Test that winner detects a side with no moves, and that it is
+     * kept current through moves and undos.
+     */
+    @Test
+    public void testWinner() {
+        m = new Board();
+        assertNull(m.winner());
+        for (String sq : new String[] {
+                "a8", "b8", "b7", "b6", "a6", "c10", "c9", "d9", "e9", "e10",
+                "f10", "f9", "g9", "h9", "h10", "j8", "i8", "i7", "j6" }) {
+            m.put(Piece.SPEAR, Square.sq(sq));
+        }
+        assertNull(m.winner());
+        m.makeMove(Move.mv("j4-i5(i6)"));
+        assertEquals(Piece.WHITE, m.winner());
+        assertEquals(Piece.WHITE, m.winner());
+        m.undo();
+        assertNull(m.winner());
+        m.moveQueen(Move.mv("j4-i5(i6)").packed());
+        assertNull(m.winner());
+        m.throwSpear(Square.sq("i6").index());
+        assertEquals(Piece.WHITE, m.winner());
+        assertEquals(Piece.WHITE, new Board(m).winner());
+    }
+
     /**
      * Test the toString method.
      */
@@ -77,4 +256,30 @@ public class TestBoard {
                         + "   - - - W - - W - - -\n";
         assertEquals(n.toString(), check);
     }
+
+    /**
+     * Test that the Zobrist key of the image of a position under each
+     * board symmetry is that of the position built by moving each piece
+     * to its image.
+     */
+    @Test
+    public void testSymmetricHash() {
+        Random random = new Random(61);
+        int[] moves = new int[Board.MAX_MOVES];
+        m = new Board();
+        for (int k = 0; k < 20; k += 1) {
+            m.makeMove(moves[random.nextInt(m.legalMoves(m.turn(), moves))]);
+        }
+        assertEquals(m.hash(), m.hash(0));
+        for (int s = 0; s < Square.SYMMETRIES; s += 1) {
+            Board image = new Board();
+            for (int i = 0; i < Board.SIZE * Board.SIZE; i += 1) {
+                image.put(Piece.EMPTY, Square.sq(i));
+            }
+            for (int i = 0; i < Board.SIZE * Board.SIZE; i += 1) {
+                image.put(m.get(i), Square.sq(Square.transform(i, s)));
+            }
+            assertEquals(image.hash(), m.hash(s));
+        }
+    }
 }
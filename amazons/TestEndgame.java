@@ -0,0 +1,304 @@
+package amazons;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Random;
+
+import static amazons.Piece.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the endgame solver.
+ * @author John Schulz
+ */
+public class TestEndgame {
+
+    /**
+     * Test that the regions of the board are found.
+     */
+    @Test
+    public void testRegions() {
+        EndgameSolver solver = new EndgameSolver(1, 1);
+        assertFalse(solver.analyze(new Board()));
+        assertEquals(1, solver.regions());
+        assertEquals(8, solver.amazons(0));
+        assertEquals(92, solver.empties(0));
+        assertEquals(EMPTY, solver.color(0));
+        assertFalse(solver.analyze(TestSearch.narrowBoard()));
+        assertEquals(6, solver.regions());
+        Board b = new Board();
+        for (int index = 0; index < Board.SIZE * Board.SIZE; index += 1) {
+            if (index / Board.SIZE == 5 && index % Board.SIZE > 0) {
+                b.put(SPEAR, Square.sq(index));
+            }
+        }
+        assertFalse(solver.analyze(b));
+        b.put(SPEAR, Square.sq(0, 5));
+        assertTrue(solver.analyze(b));
+        assertEquals(2, solver.regions());
+        assertEquals(WHITE, solver.color(0));
+        assertEquals(46, solver.empties(0));
+        assertEquals(BLACK, solver.color(1));
+        assertEquals(36, solver.empties(1));
+    }
+
+    /**
+     * Return the greatest number of moves SIDE could make in a row on
+     * BOARD, found by searching all of them, using and adding to the
+     * results for positions in MEMO.
+     */
+    static int longest(Board board, Piece side, HashMap<Long, Integer> memo) {
+        Integer known = memo.get(board.hash());
+        if (known != null) {
+            return known;
+        }
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = board.legalMoves(side, moves);
+        int best = 0;
+        for (int i = 0; i < n; i += 1) {
+            board.makeMove(moves[i]);
+            best = Math.max(best, 1 + longest(board, side, memo));
+            board.undo();
+        }
+        memo.put(board.hash(), best);
+        return best;
+    }
+
+    /**
+     * Return the number of empty squares in the largest region found by
+     * SOLVER.
+     */
+    static int largest(EndgameSolver solver) {
+        int most = 0;
+        for (int r = 0; r < solver.regions(); r += 1) {
+            most = Math.max(most, solver.empties(r));
+        }
+        return most;
+    }
+
+    /**
+     * Test the solver's results and moves against exhaustive searches on
+     * random boards with few empty squares.
+     */
+    @Test
+    public void testSolve() {
+        Random random = new Random(61);
+        EndgameSolver solver = new EndgameSolver(Long.MAX_VALUE, 1);
+        int solved = 0;
+        for (int trial = 0; trial < 400; trial += 1) {
+            Board b = new Board();
+            for (int index = 0; index < Board.SIZE * Board.SIZE;
+                 index += 1) {
+                b.put(random.nextInt(4) < 3 ? SPEAR : EMPTY,
+                      Square.sq(index));
+            }
+            for (int k = 0; k < 4; k += 1) {
+                b.put(k < 2 ? WHITE : BLACK,
+                      Square.sq(random.nextInt(Board.SIZE * Board.SIZE)));
+            }
+            if (!solver.analyze(b) || b.winner() != null
+                || largest(solver) > 6) {
+                continue;
+            }
+            int move = solver.solve(b, null, 1);
+            assertTrue(solver.solved());
+            Piece side = b.turn();
+            HashMap<Long, Integer> memo = new HashMap<>();
+            int mine = longest(b, side, memo);
+            memo.clear();
+            assertEquals(mine - longest(b, side.opponent(), memo),
+                         solver.margin());
+            if (mine > 0) {
+                assertTrue(b.isLegal(Move.mv(move)));
+                b.makeMove(move);
+                memo.clear();
+                assertEquals(mine - 1, longest(b, side, memo));
+            } else {
+                assertEquals(0, move);
+            }
+            solved += 1;
+        }
+        assertTrue(solved > 50);
+    }
+
+    /**
+     * Test that the solver gives up when it runs out of nodes.
+     */
+    @Test
+    public void testNodeLimit() {
+        Board b = new Board();
+        for (int index = 0; index < Board.SIZE * Board.SIZE; index += 1) {
+            if (index / Board.SIZE == 5) {
+                b.put(SPEAR, Square.sq(index));
+            }
+        }
+        EndgameSolver solver = new EndgameSolver(10, 1);
+        assertEquals(0, solver.solve(b, null, 1));
+        assertFalse(solver.solved());
+    }
+
+    /**
+     * Test that the values of regions holding one amazon are remembered,
+     * so that solving a position again takes one node per region.
+     */
+    @Test
+    public void testMemo() {
+        Board b = new Board();
+        for (int index = 0; index < Board.SIZE * Board.SIZE; index += 1) {
+            b.put(SPEAR, Square.sq(index));
+        }
+        for (int col = 0; col < 5; col += 1) {
+            for (int row = 0; row < 4; row += 1) {
+                b.put(EMPTY, Square.sq(col, row));
+            }
+        }
+        b.put(WHITE, Square.sq(0, 0));
+        b.put(EMPTY, Square.sq(9, 8));
+        b.put(EMPTY, Square.sq(8, 9));
+        b.put(BLACK, Square.sq(9, 9));
+        EndgameSolver solver = new EndgameSolver(Long.MAX_VALUE, 1);
+        int move = solver.solve(b, null, 1);
+        assertTrue(solver.solved());
+        assertEquals(19 - 2, solver.margin());
+        assertTrue(solver.nodes() > 2);
+        assertTrue(solver.memo().size() > 2);
+        assertEquals(move, solver.solve(b, null, 1));
+        assertEquals(19 - 2, solver.margin());
+        assertEquals(2, solver.nodes());
+    }
+
+    /**
+     * Test that a tablebase built for small regions agrees with the
+     * solver, and that a solver using it gets the same results.
+     */
+    @Test
+    public void testTablebase() throws IOException {
+        Path file = Files.createTempFile("amazons", ".tb");
+        try {
+            int records = Tablebase.build(file, 5);
+            Tablebase table = Tablebase.open(file);
+            assertEquals(records, table.size());
+            assertEquals(5, table.maxSquares());
+            Random random = new Random(61);
+            EndgameSolver plain = new EndgameSolver(1000000, 1),
+                tabled = new EndgameSolver(1000000, 1);
+            tabled.setTablebase(table);
+            for (int trial = 0; trial < 300; trial += 1) {
+                Board b = new Board();
+                for (int index = 0; index < Board.SIZE * Board.SIZE;
+                     index += 1) {
+                    b.put(random.nextInt(4) < 3 ? SPEAR : EMPTY,
+                          Square.sq(index));
+                }
+                for (int k = 0; k < 4; k += 1) {
+                    b.put(k < 2 ? WHITE : BLACK,
+                          Square.sq(random.nextInt(Board.SIZE * Board.SIZE)));
+                }
+                int move = plain.solve(b, null, 1);
+                if (!plain.solved()) {
+                    continue;
+                }
+                int tabledMove = tabled.solve(b, null, 1);
+                assertEquals(plain.margin(), tabled.margin());
+                assertEquals(move == 0, tabledMove == 0);
+                if (move != 0) {
+                    int margin = tabled.margin();
+                    b.makeMove(tabledMove);
+                    if (b.winner() == null) {
+                        plain.solve(b, null, 1);
+                        assertTrue(plain.solved());
+                        assertEquals(1 - margin, plain.margin());
+                    }
+                }
+            }
+            assertTrue(table.hits() > 0);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Test the solver's results and moves on boards with a small region
+     * shared by one amazon of each color, which it can solve only with a
+     * tablebase, against exhaustive searches.
+     */
+    @Test
+    public void testTablebaseFights() throws IOException {
+        Path file = Files.createTempFile("amazons", ".tb");
+        try {
+            Tablebase.build(file, 6);
+            Tablebase table = Tablebase.open(file);
+            assertEquals(6, table.pairSquares());
+            Random random = new Random(61);
+            EndgameSolver plain = new EndgameSolver(Long.MAX_VALUE, 1),
+                tabled = new EndgameSolver(Long.MAX_VALUE, 1);
+            tabled.setTablebase(table);
+            int solved = 0;
+            for (int trial = 0; trial < 300; trial += 1) {
+                Board b = new Board();
+                for (int index = 0; index < Board.SIZE * Board.SIZE;
+                     index += 1) {
+                    int col = index % Board.SIZE, row = index / Board.SIZE;
+                    boolean open = col < 4 && row < 3 || col > 5 && row < 2
+                        || col > 5 && row > 7;
+                    b.put(open && random.nextInt(3) == 0 ? EMPTY : SPEAR,
+                          Square.sq(index));
+                }
+                b.put(WHITE, Square.sq(random.nextInt(4), random.nextInt(3)));
+                b.put(BLACK, Square.sq(random.nextInt(4), random.nextInt(3)));
+                b.put(WHITE, Square.sq(6 + random.nextInt(4),
+                                       8 + random.nextInt(2)));
+                b.put(BLACK, Square.sq(6 + random.nextInt(4),
+                                       random.nextInt(2)));
+                if (b.winner() == null && random.nextBoolean()) {
+                    b.makeMove(b.legalMoves().next());
+                }
+                if (b.winner() != null) {
+                    continue;
+                }
+                int move = tabled.solve(b, null, 1);
+                if (!tabled.solved() || tabled.analyze(b)) {
+                    continue;
+                }
+                plain.solve(b, null, 1);
+                assertFalse(plain.solved());
+                boolean win = wins(b, new HashMap<>());
+                assertEquals(win, tabled.margin() > 0);
+                assertTrue(b.isLegal(Move.mv(move)));
+                if (win) {
+                    b.makeMove(move);
+                    assertFalse(wins(b, new HashMap<>()));
+                }
+                solved += 1;
+            }
+            assertTrue(solved > 50);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Return true iff the side to move on BOARD wins, found by searching
+     * all moves, using and adding to the results for positions in MEMO.
+     */
+    static boolean wins(Board board, HashMap<Long, Boolean> memo) {
+        Boolean known = memo.get(board.hash());
+        if (known != null) {
+            return known;
+        }
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = board.legalMoves(board.turn(), moves);
+        boolean result = false;
+        for (int i = 0; i < n && !result; i += 1) {
+            board.makeMove(moves[i]);
+            result = !wins(board, memo);
+            board.undo();
+        }
+        memo.put(board.hash(), result);
+        return result;
+    }
+}
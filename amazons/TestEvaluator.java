@@ -0,0 +1,56 @@
+package amazons;
+
+import org.junit.Test;
+
+import static amazons.Piece.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the static evaluation.
+ * @author John Schulz
+ */
+public class TestEvaluator {
+
+    /**
+     * Test that the value of the symmetric initial position changes sign
+     * with the side to move, favoring it.
+     */
+    @Test
+    public void testSymmetry() {
+        Evaluator eval = new Evaluator();
+        Board b = new Board();
+        int value = eval.evaluate(b);
+        assertTrue(value > 0);
+        b.changeTurn();
+        assertEquals(-value, eval.evaluate(b));
+    }
+
+    /**
+     * Test that territory walled off for one side counts for it, and
+     * that a won position has the winning value.
+     */
+    @Test
+    public void testTerritory() {
+        Evaluator eval = new Evaluator();
+        Board b = new Board();
+        for (int col = 0; col < Board.SIZE; col += 1) {
+            b.put(SPEAR, Square.sq(col, 4));
+            b.put(SPEAR, Square.sq(col, 7));
+        }
+        assertTrue(eval.evaluate(b) > 0);
+        b.changeTurn();
+        assertTrue(eval.evaluate(b) > 0);
+
+        b = new Board();
+        for (int index : new int[] { 93, 96, 60, 69 }) {
+            Square queen = Square.sq(index);
+            for (int dir = 0; dir < 8; dir += 1) {
+                Square next = queen.queenMove(dir, 1);
+                if (next != null && b.get(next) == EMPTY) {
+                    b.put(SPEAR, next);
+                }
+            }
+        }
+        assertEquals(Searcher.WINNING_VALUE, eval.evaluate(b));
+    }
+}
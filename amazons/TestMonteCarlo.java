@@ -0,0 +1,301 @@
+package amazons;
+
+import org.junit.Test;
+
+import static amazons.Piece.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the Monte Carlo tree search.
+ * @author John Schulz
+ */
+public class TestMonteCarlo {
+
+    /**
+     * Return a board on which White, to move, wins at once by walling
+     * in the only Black amazon, which has one empty square next to it,
+     * while every other move loses to a Black move doing the same.
+     */
+    static Board trapBoard() {
+        Board b = new Board();
+        for (int index = 0; index < Board.SIZE * Board.SIZE; index += 1) {
+            b.put(SPEAR, Square.sq(index));
+        }
+        b.put(BLACK, Square.sq(0, 0));
+        b.put(EMPTY, Square.sq(1, 0));
+        b.put(WHITE, Square.sq(3, 0));
+        b.put(EMPTY, Square.sq(2, 0));
+        b.put(EMPTY, Square.sq(4, 0));
+        b.put(EMPTY, Square.sq(5, 0));
+        return b;
+    }
+
+    /**
+     * Test that the search finds a winning move, leaves the board as it
+     * was, and makes the number of playouts it is limited to.
+     */
+    @Test
+    public void testFindsWin() {
+        Board b = trapBoard();
+        long hash = b.hash();
+        MonteCarloSearch search =
+            new MonteCarloSearch(1, new NodeArena(16),
+                                 new TimeManager(1, 1));
+        search.setPlayoutLimit(500);
+        int move = search.think(b);
+        assertEquals(hash, b.hash());
+        assertEquals(500, search.playouts());
+        assertTrue(search.nodes() > 1);
+        b.makeMove(move);
+        assertEquals(WHITE, b.winner());
+        assertTrue(search.value() > 0.9);
+    }
+
+    /**
+     * Test that searches limited by playouts are reproducible, and that
+     * they return legal moves from the initial position.
+     */
+    @Test
+    public void testReproducible() {
+        Board b = new Board();
+        int move = -1;
+        long nodes = -1;
+        for (int trial = 0; trial < 2; trial += 1) {
+            MonteCarloSearch search =
+                new MonteCarloSearch(1, new NodeArena(16),
+                                     new TimeManager(1, 1));
+            search.setPlayoutLimit(5000);
+            int found = search.think(b);
+            assertTrue(b.isLegal(Move.mv(found)));
+            if (trial > 0) {
+                assertEquals(move, found);
+                assertEquals(nodes, search.nodes());
+            }
+            move = found;
+            nodes = search.nodes();
+        }
+    }
+
+    /**
+     * Test that several threads sharing a tree make exactly the playouts
+     * they are limited to between them and still find a winning move.
+     */
+    @Test
+    public void testThreads() {
+        Board b = trapBoard();
+        MonteCarloSearch search =
+            new MonteCarloSearch(4, new NodeArena(16),
+                                 new TimeManager(1, 1));
+        search.setPlayoutLimit(2001);
+        int move = search.think(b);
+        assertEquals(4, search.threads());
+        assertEquals(2001, search.playouts());
+        b.makeMove(move);
+        assertEquals(WHITE, b.winner());
+        b.undo();
+        search.setPlayoutLimit(20000);
+        assertTrue(new Board().isLegal(Move.mv(search.think(new Board()))));
+        assertEquals(20000, search.playouts());
+    }
+
+    /**
+     * Test that an arena holds the number of nodes its size allows, fails
+     * to allocate beyond that, and can be reused after clearing.
+     */
+    @Test
+    public void testArena() {
+        NodeArena arena = new NodeArena(1);
+        assertEquals((1 << 20) / NodeArena.NODE_BYTES, arena.capacity());
+        int[] moves = new int[1000];
+        int first = 0, blocks = arena.capacity() / moves.length;
+        for (int k = 0; k < blocks; k += 1) {
+            assertEquals(first, arena.allocate(moves, moves.length));
+            first += moves.length;
+        }
+        assertEquals(-1, arena.allocate(moves, moves.length));
+        assertEquals(first, arena.size());
+        assertEquals(0, arena.addStats(3, 2, 1));
+        assertEquals(2, NodeArena.visits(arena.stats(3)));
+        assertEquals(1, NodeArena.wins(arena.stats(3)));
+        assertTrue(arena.claim(3));
+        assertFalse(arena.claim(3));
+        arena.setChildren(3, 7, 5);
+        assertEquals(7, NodeArena.firstChild(arena.children(3)));
+        assertEquals(5, NodeArena.childCount(arena.children(3)));
+        arena.clear();
+        assertEquals(0, arena.size());
+        assertEquals(0, arena.allocate(moves, 10));
+        assertEquals(0, arena.stats(3));
+        assertEquals(NodeArena.UNEXPANDED, arena.children(3));
+    }
+
+    /**
+     * Test that retain keeps exactly one subtree, moved to the front of
+     * the arena with its structure and statistics intact.
+     */
+    @Test
+    public void testRetain() {
+        NodeArena arena = new NodeArena(1);
+        assertEquals(0, arena.allocate(new int[] { 0 }, 1));
+        arena.setChildren(0, arena.allocate(new int[] { 1, 2, 3 }, 3), 3);
+        arena.setChildren(2, arena.allocate(new int[] { 4, 5 }, 2), 2);
+        arena.setChildren(1, arena.allocate(new int[] { 6 }, 1), 1);
+        arena.setChildren(5, arena.allocate(new int[] { 7, 8 }, 2), 2);
+        arena.addStats(2, 10, 4);
+        arena.addStats(5, 3, 1);
+        arena.addStats(8, 1, 1);
+        arena.retain(2);
+        assertEquals(5, arena.size());
+        assertEquals(2, arena.move(0));
+        assertEquals(10, NodeArena.visits(arena.stats(0)));
+        assertEquals(4, NodeArena.wins(arena.stats(0)));
+        long children = arena.children(0);
+        assertEquals(1, NodeArena.firstChild(children));
+        assertEquals(2, NodeArena.childCount(children));
+        assertEquals(4, arena.move(1));
+        assertEquals(5, arena.move(2));
+        assertEquals(NodeArena.UNEXPANDED, arena.children(1));
+        assertEquals(3, NodeArena.visits(arena.stats(2)));
+        children = arena.children(2);
+        assertEquals(3, NodeArena.firstChild(children));
+        assertEquals(2, NodeArena.childCount(children));
+        assertEquals(7, arena.move(3));
+        assertEquals(8, arena.move(4));
+        assertEquals(1, NodeArena.wins(arena.stats(4)));
+    }
+
+    /**
+     * Test that children added in later chunks are found in order, and
+     * kept by retain with the chunks that hold them.
+     */
+    @Test
+    public void testChunks() {
+        NodeArena arena = new NodeArena(1);
+        assertEquals(0, arena.allocate(new int[] { 0 }, 1));
+        assertTrue(arena.claim(0));
+        arena.setChildren(0, arena.allocate(new int[] { 1, 2 }, 2), 2,
+                          true);
+        arena.allocate(new int[] { 9 }, 1);
+        long children = arena.children(0);
+        assertTrue(NodeArena.hasMore(children));
+        assertTrue(arena.claimWidening(0, children));
+        assertFalse(arena.claimWidening(0, children));
+        assertTrue(NodeArena.widening(arena.children(0)));
+        arena.addChildren(0, children, arena.allocate(new int[] { 3 }, 1),
+                          1, true);
+        children = arena.children(0);
+        assertTrue(arena.claimWidening(0, children));
+        arena.addChildren(0, children,
+                          arena.allocate(new int[] { 4, 5 }, 2), 2, false);
+        children = arena.children(0);
+        assertFalse(NodeArena.hasMore(children));
+        assertFalse(NodeArena.widening(children));
+        assertEquals(5, NodeArena.childCount(children));
+        for (int k = 0; k < 5; k += 1) {
+            assertEquals(k + 1, arena.move(arena.child(children, k)));
+        }
+        arena.setChildren(5, arena.allocate(new int[] { 6 }, 1), 1);
+        arena.addStats(5, 7, 3);
+        arena.retain(0);
+        assertEquals(7, arena.size());
+        children = arena.children(0);
+        assertEquals(5, NodeArena.childCount(children));
+        for (int k = 0; k < 5; k += 1) {
+            assertEquals(k + 1, arena.move(arena.child(children, k)));
+        }
+        int node = arena.child(children, 3);
+        assertEquals(7, NodeArena.visits(arena.stats(node)));
+        assertEquals(6,
+                     arena.move(NodeArena.firstChild(arena.children(node))));
+    }
+
+    /**
+     * Test that widening nodes progressively makes a search use far
+     * fewer nodes than giving them all their children, while it still
+     * finds wins.
+     */
+    @Test
+    public void testWidening() {
+        long[] nodes = new long[2];
+        for (int widen = 0; widen < 2; widen += 1) {
+            MonteCarloSearch search =
+                new MonteCarloSearch(1, new NodeArena(64),
+                                     new TimeManager(1, 1));
+            search.setWidening(widen == 1);
+            search.setPlayoutLimit(20000);
+            Board b = new Board();
+            assertTrue(b.isLegal(Move.mv(search.think(b))));
+            nodes[widen] = search.nodes();
+            b = trapBoard();
+            b.makeMove(search.think(b));
+            assertEquals(WHITE, b.winner());
+        }
+        assertTrue(nodes[1] * 10 < nodes[0]);
+    }
+
+    /**
+     * Test that a search continues with the subtree for the position
+     * reached by the moves reported to it, and starts afresh after a
+     * move it has not seen.
+     */
+    @Test
+    public void testReuse() {
+        Board b = new Board();
+        MonteCarloSearch search =
+            new MonteCarloSearch(1, new NodeArena(16), new TimeManager(1, 1));
+        search.setPlayoutLimit(20000);
+        int move = search.think(b);
+        assertEquals(0, search.reused());
+        for (int ply = 0; ply < 2; ply += 1) {
+            search.advance(move);
+            b.makeMove(move);
+            move = search.think(b);
+            assertTrue(search.reused() > 0);
+            assertTrue(b.isLegal(Move.mv(move)));
+        }
+        int[] moves = new int[Board.MAX_MOVES];
+        b.legalMoves(b.turn(), moves);
+        search.advance(move);
+        b.makeMove(moves[0] == move ? moves[1] : moves[0]);
+        search.think(b);
+        assertEquals(0, search.reused());
+    }
+
+    /**
+     * Test that searches stay within a small arena, and still return
+     * legal moves when even the root's children do not fit.
+     */
+    @Test
+    public void testFullArena() {
+        Board b = new Board();
+        for (int megabytes = 0; megabytes <= 1; megabytes += 1) {
+            NodeArena arena = new NodeArena(megabytes);
+            MonteCarloSearch search =
+                new MonteCarloSearch(2, arena, new TimeManager(1, 1));
+            search.setWidening(false);
+            search.setPlayoutLimit(20000);
+            int move = search.think(b);
+            assertTrue(b.isLegal(Move.mv(move)));
+            assertTrue(search.full());
+            assertTrue(search.nodes() <= arena.capacity());
+            assertEquals(20000, search.playouts());
+        }
+    }
+
+    /**
+     * Test that a timed search stops when its time is up.
+     */
+    @Test
+    public void testTimeLimit() {
+        TimeManager clock = new TimeManager(0.2, 10);
+        MonteCarloSearch search =
+            new MonteCarloSearch(1, new NodeArena(16), clock);
+        Board b = new Board();
+        clock.startMove(b);
+        int move = search.think(b);
+        clock.endMove();
+        assertTrue(b.isLegal(Move.mv(move)));
+        assertTrue(clock.elapsedMillis() < 1000);
+        assertTrue(search.playouts() > 0);
+    }
+}
@@ -0,0 +1,254 @@
+package amazons;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the AI's searches.
+ * @author John Schulz
+ */
+public class TestSearch {
+
+    /**
+     * Return an initial board on which every empty square outside the
+     * two leftmost and two rightmost columns holds a spear.
+     */
+    static Board narrowBoard() {
+        Board b = new Board();
+        for (int index = 0; index < Board.SIZE * Board.SIZE; index += 1) {
+            int col = index % Board.SIZE;
+            if (col >= 2 && col < Board.SIZE - 2 && b.isEmpty(index)) {
+                b.put(Piece.SPEAR, Square.sq(index));
+            }
+        }
+        return b;
+    }
+
+    /**
+     * Test that the Young Brothers Wait search finds the same move with
+     * the same node count on any number of threads.
+     */
+    @Test
+    public void testYoungBrothersDeterministic() {
+        TimeManager clock = new TimeManager(1, 1);
+        long nodes = -1;
+        int move = -1;
+        for (int threads = 1; threads <= 4; threads += 3) {
+            YoungBrothersSearch search = new YoungBrothersSearch(threads,
+                                                                 clock);
+            search.setDepthLimit(3);
+            int found = search.think(narrowBoard(), Searcher.MAX_DEPTH, 1);
+            assertEquals(3, search.depthReached());
+            if (nodes >= 0) {
+                assertEquals(nodes, search.nodes());
+                assertEquals(move, found);
+            }
+            nodes = search.nodes();
+            move = found;
+        }
+    }
+
+    /**
+     * Test that a timed Young Brothers Wait search stops when its time
+     * is up, leaving none of its tasks queued or running, so that none
+     * can run on into the next search.
+     */
+    @Test
+    public void testYoungBrothersTimeout() {
+        TimeManager clock = new TimeManager(0.2, 10);
+        YoungBrothersSearch search = new YoungBrothersSearch(4, clock);
+        Board board = new Board();
+        for (int trial = 0; trial < 2; trial += 1) {
+            clock.startMove(board);
+            int move = search.think(board, Searcher.MAX_DEPTH, 1);
+            clock.endMove();
+            assertTrue(search.idle());
+            assertTrue(board.isLegal(Move.mv(move)));
+            assertTrue(clock.elapsedMillis() < 2000);
+        }
+    }
+
+    /**
+     * Return the negamax value of BOARD searched to DEPTH without
+     * pruning, for the side to move.
+     */
+    static int minimax(Board board, int depth) {
+        if (depth == 0 || board.winner() != null) {
+            int score = new Evaluator().evaluate(board);
+            return board.turn() == Piece.WHITE ? score : -score;
+        }
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = board.legalMoves(board.turn(), moves);
+        int best = -Searcher.INFTY;
+        for (int i = 0; i < n; i += 1) {
+            board.makeMove(moves[i]);
+            best = Math.max(best, -minimax(board, depth - 1));
+            board.undo();
+        }
+        return best;
+    }
+
+    /**
+     * Test that the principal variation search, with its null windows,
+     * aspiration windows, transposition table, and evaluation cache,
+     * finds the minimax value.
+     */
+    @Test
+    public void testPrincipalVariationValue() {
+        Board board = narrowBoard();
+        for (int depth = 1; depth <= 3; depth += 1) {
+            Searcher searcher =
+                new Searcher(new TranspositionTable(1), new TimeManager(1, 1));
+            searcher.setEvalCache(new EvalCache(1));
+            searcher.setDepthLimit(depth);
+            searcher.setPosition(board);
+            searcher.think(Searcher.MAX_DEPTH, 1);
+            assertEquals(depth, searcher.depthReached());
+            assertEquals(minimax(board, depth), searcher.value());
+            board.makeMove(searcher.bestMove());
+            assertEquals(-minimax(board, depth - 1), searcher.value());
+            board.undo();
+        }
+    }
+
+    /**
+     * Test that the split-ply search, in which queen moves and spear
+     * throws are separate levels, finds the minimax value.
+     */
+    @Test
+    public void testSplitPlyValue() {
+        Board board = narrowBoard();
+        for (int depth = 1; depth <= 3; depth += 1) {
+            Searcher searcher =
+                new Searcher(new TranspositionTable(1), new TimeManager(1, 1));
+            searcher.setSplitPly(true);
+            searcher.setDepthLimit(depth);
+            searcher.setPosition(board);
+            searcher.think(Searcher.MAX_DEPTH, 1);
+            assertEquals(depth, searcher.depthReached());
+            assertEquals(minimax(board, depth), searcher.value());
+            board.makeMove(searcher.bestMove());
+            assertEquals(-minimax(board, depth - 1), searcher.value());
+            board.undo();
+        }
+    }
+
+    /**
+     * Test that an opening book holds one entry for each position up to
+     * symmetry, and that probing the mirror image of a position gives
+     * the mirror image of its move.
+     */
+    @Test
+    public void testOpeningBook() throws IOException {
+        Path file = Files.createTempFile("amazons", ".book");
+        try {
+            Board start = narrowBoard();
+            int records = OpeningBook.build(file, start, 2, 1, false);
+            OpeningBook book = OpeningBook.open(file);
+            assertEquals(records, book.size());
+            long entry = book.probe(start);
+            assertTrue(entry != OpeningBook.MISSING);
+            assertTrue(start.isLegal(Move.mv(OpeningBook.move(entry))));
+            HashSet<Long> keys = new HashSet<>();
+            keys.add(OpeningBook.canonicalKey(start));
+            int[] moves = new int[Board.MAX_MOVES];
+            int n = start.legalMoves(start.turn(), moves);
+            for (int i = 0; i < n; i += 1) {
+                Board image = new Board(start);
+                image.makeMove(Move.transform(moves[i], 1));
+                start.makeMove(moves[i]);
+                keys.add(OpeningBook.canonicalKey(start));
+                entry = book.probe(start);
+                long imageEntry = book.probe(image);
+                assertTrue(entry != OpeningBook.MISSING);
+                assertTrue(start.isLegal(Move.mv(OpeningBook.move(entry))));
+                assertEquals(OpeningBook.score(entry),
+                             OpeningBook.score(imageEntry));
+                if (image.hash() != start.hash()) {
+                    assertEquals(Move.transform(OpeningBook.move(entry), 1),
+                                 OpeningBook.move(imageEntry));
+                }
+                start.undo();
+            }
+            assertEquals(keys.size(), records);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Test that an AI ponders only while its opponent is to move, that
+     * its pondering fills the shared transposition table, and that its
+     * next move, or its dismissal, stops the pondering search before it
+     * returns.  Also test that an AI does not ponder against an AI
+     * created from the same template, or when searching to a fixed
+     * depth.
+     */
+    @Test
+    public void testPondering() throws InterruptedException {
+        AI template = new AI();
+        template.setHashSize(1);
+        template.setTimeLimits(0.1, 10);
+        template.setPonder(true);
+        Controller controller =
+            new Controller(new NullView(), null, new TextReporter(),
+                           template, template);
+        Board board = controller.board();
+        AI ai = (AI) template.create(Piece.WHITE, controller);
+        TranspositionTable table = ai.table();
+        assertSame(template.table(), table);
+        int[] moves = new int[Board.MAX_MOVES];
+        board.legalMoves(board.turn(), moves);
+        ai.moveMade(Move.mv(moves[0]));
+        assertFalse(ai.pondering());
+        board.makeMove(moves[0]);
+        ai.moveMade(Move.mv(moves[0]));
+        assertTrue(ai.pondering());
+        long deadline = System.currentTimeMillis() + PONDER_DEADLINE_MILLIS;
+        while (table.stores() == 0
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        ai.dismiss();
+        assertFalse(ai.pondering());
+        long stores = table.stores();
+        assertTrue(stores > 0);
+        Thread.sleep(PONDER_MILLIS);
+        assertEquals(stores, table.stores());
+
+        ai.moveMade(Move.mv(moves[0]));
+        assertTrue(ai.pondering());
+        board.legalMoves(board.turn(), moves);
+        board.makeMove(moves[0]);
+        assertTrue(board.isLegal(Move.mv(ai.myMove())));
+        assertFalse(ai.pondering());
+        board.undo();
+        ai.dismiss();
+
+        AI other = new AI();
+        other.setPonder(true);
+        assertTrue(ai.pondersAgainst(null));
+        assertTrue(ai.pondersAgainst(other.create(Piece.BLACK, controller)));
+        assertFalse(ai.pondersAgainst(
+            template.create(Piece.BLACK, controller)));
+
+        template.setDepthLimit(1);
+        ai = (AI) template.create(Piece.WHITE, controller);
+        ai.moveMade(Move.mv(moves[0]));
+        assertFalse(ai.pondering());
+    }
+
+    /** Longest wait for pondering to store a position in testPondering,
+     *  in milliseconds. */
+    private static final int PONDER_DEADLINE_MILLIS = 10000;
+
+    /** Time allowed for further stores after pondering has stopped in
+     *  testPondering, in milliseconds. */
+    private static final int PONDER_MILLIS = 100;
+}
@@ -62,6 +62,19 @@ public class TestSquare {
         assertEquals(b3.queenMove(3, 4).toString(), b2.toString());
     }
 
+    /**
+     * Test the precomputed rays.
+     */
+    @Test
+    public void checkRay() {
+        assertArrayEquals(new int[] { 22, 33, 44, 55, 66, 77, 88, 99 },
+                Square.ray(11, 1));
+        assertArrayEquals(new int[] { 1, 0 }, Square.ray(2, 6));
+        assertEquals(0, Square.ray(99, 0).length);
+        assertNull(b.queenMove(4, 2));
+        assertNull(c.queenMove(1, 1));
+    }
+
     /**
      * Test the to direction method.
      */
@@ -77,4 +90,30 @@ public class TestSquare {
         assertEquals(b3.direction(b2), 3);
         assertEquals(d.direction(d1), 0);
     }
+
+    /**
+     * Test that the board symmetries map squares one-to-one, fix the
+     * square sets they should, and are undone by their inverses.
+     */
+    @Test
+    public void testSymmetries() {
+        for (int s = 0; s < Square.SYMMETRIES; s += 1) {
+            boolean[] hit = new boolean[Board.SIZE * Board.SIZE];
+            for (int i = 0; i < hit.length; i += 1) {
+                int image = Square.transform(i, s);
+                assertFalse(hit[image]);
+                hit[image] = true;
+                assertEquals(i, Square.transform(image, Square.inverse(s)));
+            }
+        }
+        for (int i = 0; i < Board.SIZE * Board.SIZE; i += 1) {
+            assertEquals(i, Square.transform(i, 0));
+        }
+        assertEquals(Square.sq("j4").index(),
+                     Square.transform(Square.sq("a4").index(), 1));
+        assertEquals(Square.sq("a7").index(),
+                     Square.transform(Square.sq("a4").index(), 2));
+        assertEquals(Square.sq("d1").index(),
+                     Square.transform(Square.sq("a4").index(), 4));
+    }
 }
@@ -0,0 +1,100 @@
+package amazons;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the transposition table, the evaluation cache, and the region
+ * table.
+ * @author John Schulz
+ */
+public class TestTranspositionTable {
+
+    /**
+     * Test that stored entries come back intact and that other keys
+     * mapping to the same slot are told apart.
+     */
+    @Test
+    public void testStoreProbe() {
+        TranspositionTable t = new TranspositionTable(1);
+        long key = new Board().hash();
+        int move = Move.mv("d1-d7(g7)").packed();
+        assertEquals(0, t.probe(key));
+        t.store(key, 3, TranspositionTable.LOWER, -1234, move);
+        long entry = t.probe(key);
+        assertEquals(3, TranspositionTable.depth(entry));
+        assertEquals(TranspositionTable.LOWER, TranspositionTable.bound(entry));
+        assertEquals(-1234, TranspositionTable.score(entry));
+        assertEquals(move, TranspositionTable.move(entry));
+        long other = key + t.size();
+        assertEquals(0, t.probe(other));
+        assertEquals(1, t.hits());
+        assertEquals(1, t.misses());
+        assertEquals(1, t.collisions());
+    }
+
+    /**
+     * Test that a shallower result does not replace a deeper one for the
+     * same position.
+     */
+    @Test
+    public void testDepthPreferred() {
+        TranspositionTable t = new TranspositionTable(1);
+        t.store(42, 5, TranspositionTable.EXACT, 7, 0);
+        t.store(42, 2, TranspositionTable.EXACT, 9, 0);
+        assertEquals(7, TranspositionTable.score(t.probe(42)));
+        t.store(42, 6, TranspositionTable.UPPER, 9, 0);
+        assertEquals(9, TranspositionTable.score(t.probe(42)));
+    }
+
+    /**
+     * Test that the evaluation cache returns stored scores, tells apart
+     * keys mapping to the same slot, and counts hits and misses.
+     */
+    @Test
+    public void testEvalCache() {
+        EvalCache c = new EvalCache(1);
+        long key = new Board().hash();
+        long other = key + c.size();
+        assertEquals(EvalCache.MISSING, c.probe(key));
+        c.store(key, -17);
+        assertEquals(-17, c.probe(key));
+        assertEquals(EvalCache.MISSING, c.probe(other));
+        c.store(other, Searcher.WINNING_VALUE);
+        assertEquals(Searcher.WINNING_VALUE, c.probe(other));
+        assertEquals(EvalCache.MISSING, c.probe(key));
+        assertEquals(2, c.hits());
+        assertEquals(3, c.misses());
+        c.clear();
+        assertEquals(EvalCache.MISSING, c.probe(other));
+    }
+
+    /**
+     * Test that the region table keeps its entries apart and empties
+     * itself rather than overflow.
+     */
+    @Test
+    public void testRegionTable() {
+        RegionTable t = new RegionTable(1);
+        assertEquals(RegionTable.MISSING, t.get(0, 1));
+        t.put(0, 1, 7);
+        t.put(1, 1, 8);
+        t.put(0, 2, 0);
+        assertEquals(7, t.get(0, 1));
+        assertEquals(8, t.get(1, 1));
+        assertEquals(0, t.get(0, 2));
+        t.put(0, 1, 9);
+        assertEquals(9, t.get(0, 1));
+        assertEquals(3, t.size());
+        for (long key = 1; key <= t.capacity(); key += 1) {
+            t.put(key << 40, key, key);
+            assertEquals(key, t.get(key << 40, key));
+            assertTrue(t.size() < t.capacity());
+        }
+        t.clear();
+        assertEquals(0, t.size());
+        assertEquals(RegionTable.MISSING, t.get(1, 1));
+        assertEquals(0, t.hits());
+    }
+}
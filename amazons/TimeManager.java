@@ -0,0 +1,83 @@
+package amazons;
+
+/** Allocates thinking time to the moves of automated players from a
+ *  limit on the time per move and a budget for a whole game.  The
+ *  budget is spent by all players sharing this TimeManager, matching a
+ *  referee that times the whole program.
+ *  @author John Schulz
+ */
+final class TimeManager {
+
+    /** A TimeManager allowing at most MOVESECONDS seconds per move and
+     *  GAMESECONDS seconds per game. */
+    TimeManager(double moveSeconds, double gameSeconds) {
+        _moveLimit = (long) (moveSeconds * NANOS_PER_SECOND);
+        _gameLimit = (long) (gameSeconds * NANOS_PER_SECOND);
+    }
+
+    /** Start timing a move from the position on BOARD, allotting it a
+     *  share of the remaining budget.  A position with fewer moves made
+     *  than the last one timed starts a new game, with a fresh budget. */
+    synchronized void startMove(Board board) {
+        if (board.numMoves() < _lastNumMoves) {
+            _used = 0;
+        }
+        _lastNumMoves = board.numMoves();
+        _start = System.nanoTime();
+        int movesLeft =
+            Math.max(MIN_MOVES_LEFT, board.count(Piece.EMPTY) / 2);
+        long remaining = Math.max(0, _gameLimit - _used - SAFETY_MARGIN);
+        long allotted = Math.min(_moveLimit * MOVE_LIMIT_SHARE / 100,
+                                 remaining / movesLeft);
+        _deadline = _start + Math.max(MIN_ALLOTMENT, allotted);
+    }
+
+    /** Stop timing the current move, charging its time to the game. */
+    synchronized void endMove() {
+        _used += System.nanoTime() - _start;
+    }
+
+    /** Return true iff the time allotted to the current move is gone. */
+    boolean timeUp() {
+        return System.nanoTime() >= _deadline;
+    }
+
+    /** Return the fraction of the current move's allotment used so far. */
+    double fractionUsed() {
+        long now = System.nanoTime();
+        return (double) (now - _start) / Math.max(1, _deadline - _start);
+    }
+
+    /** Return the time spent on the current move, in milliseconds. */
+    long elapsedMillis() {
+        return (System.nanoTime() - _start) / NANOS_PER_MILLI;
+    }
+
+    /** Time limits used by the testing scripts when none are given. */
+    static final double DEFAULT_MOVE_SECONDS = 10, DEFAULT_GAME_SECONDS = 60;
+
+    /** Nanoseconds in a second and in a millisecond. */
+    private static final long NANOS_PER_SECOND = 1_000_000_000L,
+        NANOS_PER_MILLI = 1_000_000L;
+
+    /** Time held back from the game budget for I/O and other overhead. */
+    private static final long SAFETY_MARGIN = NANOS_PER_SECOND;
+
+    /** The least time allotted to a move. */
+    private static final long MIN_ALLOTMENT = 20 * NANOS_PER_MILLI;
+
+    /** Percentage of the per-move limit that a move may use. */
+    private static final int MOVE_LIMIT_SHARE = 80;
+
+    /** The fewest moves assumed to remain in a game. */
+    private static final int MIN_MOVES_LEFT = 4;
+
+    /** Limits on the time per move and per game, in nanoseconds. */
+    private final long _moveLimit, _gameLimit;
+    /** Time charged to the game so far. */
+    private long _used;
+    /** The number of moves made before the last move timed. */
+    private int _lastNumMoves = Integer.MAX_VALUE;
+    /** Start time and deadline of the current move. */
+    private volatile long _start, _deadline;
+}
@@ -0,0 +1,163 @@
+package amazons;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A fixed-size transposition table for game-tree search, indexed by the
+ *  Zobrist keys of positions (Board.hash()).  Each slot holds one entry:
+ *  a search depth, a bound type, a score, and a best move, packed into a
+ *  long, followed by that long XORed with the position's key.  A probe
+ *  accepts a slot only if the two words XOR back to the key it is looking
+ *  for, so several search threads may read and write the table without
+ *  locks: an entry torn by a racing write fails the check and reads as
+ *  a collision rather than as wrong data.
+ *  @author John Schulz
+ */
+final class TranspositionTable {
+
+    /** Bound types of entries: the score is exact, a lower bound (the
+     *  search failed high), or an upper bound (it failed low). */
+    static final int EXACT = 1, LOWER = 2, UPPER = 3;
+
+    /** Bytes used by one slot. */
+    static final int SLOT_BYTES = 2 * Long.BYTES;
+
+    /** A table using at most MEGABYTES megabytes (at least one slot). The
+     *  number of slots is rounded down to a power of two. */
+    TranspositionTable(int megabytes) {
+        long slots = Math.max(1, ((long) megabytes << 20) / SLOT_BYTES);
+        slots = Math.min(Long.highestOneBit(slots), MAX_SLOTS);
+        _slots = new long[(int) (2 * slots)];
+        _mask = (int) slots - 1;
+    }
+
+    /** Return the packed entry stored for KEY, or 0 if there is none.
+     *  Use depth, bound, score, and move to unpack it. */
+    long probe(long key) {
+        int slot = slot(key);
+        long data = _slots[slot], check = _slots[slot + 1];
+        if ((data ^ check) == key && data != 0) {
+            _hits.increment();
+            return data;
+        } else if (data == 0) {
+            _misses.increment();
+        } else {
+            _collisions.increment();
+        }
+        return 0;
+    }
+
+    /** Record the result of a search of the position with key KEY to
+     *  DEPTH: SCORE, whose BOUND is EXACT, LOWER, or UPPER, and best move
+     *  MOVE (packed, or 0 if none).  Keeps an existing deeper entry for
+     *  the same position. */
+    void store(long key, int depth, int bound, int score, int move) {
+        int slot = slot(key);
+        long old = _slots[slot];
+        if (old != 0 && (old ^ _slots[slot + 1]) == key
+            && depth(old) > depth) {
+            return;
+        }
+        long data = ((long) bound << BOUND_SHIFT)
+            | ((long) Math.min(depth, MAX_DEPTH) << DEPTH_SHIFT)
+            | ((long) move << MOVE_SHIFT)
+            | (score & SCORE_MASK);
+        _slots[slot] = data;
+        _slots[slot + 1] = data ^ key;
+        _stores.increment();
+    }
+
+    /** Return the depth recorded in ENTRY. */
+    static int depth(long entry) {
+        return (int) (entry >>> DEPTH_SHIFT) & MAX_DEPTH;
+    }
+
+    /** Return the bound type (EXACT, LOWER, or UPPER) of ENTRY. */
+    static int bound(long entry) {
+        return (int) (entry >>> BOUND_SHIFT) & BOUND_MASK;
+    }
+
+    /** Return the score recorded in ENTRY. */
+    static int score(long entry) {
+        return (int) entry;
+    }
+
+    /** Return the packed best move recorded in ENTRY, or 0. */
+    static int move(long entry) {
+        return (int) (entry >>> MOVE_SHIFT) & MOVE_MASK;
+    }
+
+    /** Remove all entries and reset the counters. */
+    void clear() {
+        Arrays.fill(_slots, 0L);
+        _hits.reset();
+        _misses.reset();
+        _collisions.reset();
+        _stores.reset();
+    }
+
+    /** Return the number of slots. */
+    int size() {
+        return _mask + 1;
+    }
+
+    /** Return the number of probes that found their position. */
+    long hits() {
+        return _hits.sum();
+    }
+
+    /** Return the number of probes that found an empty slot. */
+    long misses() {
+        return _misses.sum();
+    }
+
+    /** Return the number of probes that found another position. */
+    long collisions() {
+        return _collisions.sum();
+    }
+
+    /** Return the number of entries stored. */
+    long stores() {
+        return _stores.sum();
+    }
+
+    @Override
+    public String toString() {
+        long hits = hits(), probes = hits + misses() + collisions();
+        return String.format("hash %dMB: %d probes, %.1f%% hits, %d misses,"
+                             + " %d collisions, %d stores",
+                             ((long) size() * SLOT_BYTES) >> 20, probes,
+                             probes == 0 ? 0.0 : 100.0 * hits / probes,
+                             misses(), collisions(), stores());
+    }
+
+    /** Return the index in _slots of the slot for KEY. */
+    private int slot(long key) {
+        return ((int) key & _mask) << 1;
+    }
+
+    /** Positions of the fields of a packed entry.  The score occupies the
+     *  low 32 bits. */
+    private static final int MOVE_SHIFT = 32, DEPTH_SHIFT = 53,
+        BOUND_SHIFT = 60;
+
+    /** Masks for the fields of a packed entry, after shifting. */
+    private static final int MOVE_MASK = (1 << 21) - 1, MAX_DEPTH = 127,
+        BOUND_MASK = 3;
+
+    /** Mask for the score field. */
+    private static final long SCORE_MASK = 0xffffffffL;
+
+    /** The largest number of slots (limited by the maximum array
+     *  length). */
+    private static final long MAX_SLOTS = 1L << 29;
+
+    /** Pairs of data and data ^ key words, one pair per slot. */
+    private final long[] _slots;
+    /** Mask that reduces a key to a slot number. */
+    private final int _mask;
+    /** Probe and store counters. */
+    private final LongAdder _hits = new LongAdder(),
+        _misses = new LongAdder(), _collisions = new LongAdder(),
+        _stores = new LongAdder();
+}
@@ -21,7 +21,10 @@ public class UnitTest {
      * the arguments of runClasses to run other JUnit tests.
      */
     public static void main(String[] ignored) {
-        textui.runClasses(UnitTest.class);
+        textui.runClasses(UnitTest.class, TestBoard.class, TestSquare.class,
+                          IteratorTests.class, TestTranspositionTable.class,
+                          TestSearch.class, TestEvaluator.class,
+                          TestEndgame.class, TestMonteCarlo.class);
     }
 
     /**
@@ -0,0 +1,341 @@
+package amazons;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+import static amazons.Piece.*;
+
+/** A deterministic parallel alpha-beta search on a ForkJoinPool, using
+ *  the Young Brothers Wait rule: at each node the first move (the eldest
+ *  brother) is searched alone to establish a bound, and only then are
+ *  the remaining moves searched in parallel as forked tasks, all with
+ *  the window that the eldest left.  When one of them causes a cutoff,
+ *  the node's cutoff index drops to that move's position and every
+ *  younger brother (one with a larger position), together with all its
+ *  descendants, abandons its search.
+ *
+ *  A node's value and node count include only the brothers up to and
+ *  including the first one (in move order) that causes a cutoff, and
+ *  those are always searched to completion.  Every result is therefore
+ *  a function of the position, depth, and window alone, so that moves,
+ *  values, and node counts are the same for any number of threads and
+ *  any scheduling.  For the same reason the search does not use the
+ *  (timing-dependent) transposition table.  Nodes other than the root
+ *  that are less than SPLIT_DEPTH from the horizon are searched
+ *  serially; the root never is, so that it always records its best
+ *  move.
+ *
+ *  Each search to one depth has its own root, which holds the flag that
+ *  stops it when time runs out, so tasks left over from one search can
+ *  never be revived by the next.  A node that returns early cancels
+ *  the brothers it has not joined, and think waits for the pool to be
+ *  idle after each search, so no task outlives the search it belongs
+ *  to.  A node copies its position from its parent's only when it
+ *  runs, so forking the brothers allocates no boards.
+ *  @author John Schulz
+ */
+final class YoungBrothersSearch {
+
+    /** A search using THREADS threads that stops when CLOCK says the time
+     *  for the current move is up. */
+    YoungBrothersSearch(int threads, TimeManager clock) {
+        _pool = new ForkJoinPool(threads);
+        _clock = clock;
+    }
+
+    /** Search exactly to depth DEPTH, ignoring the clock, if DEPTH > 0;
+     *  otherwise search as deep as time allows. */
+    void setDepthLimit(int depth) {
+        _depthLimit = depth;
+    }
+
+    /** Return the best move (packed) for the side to move on BOARD,
+     *  searching to increasing depths up to MAXDEPTH until time runs
+     *  out, or until more than NEXTDEPTHFRACTION of the time allotted
+     *  has been used.  Returns the result of the last search that
+     *  finished, or the first legal move if none has. */
+    int think(Board board, int maxDepth, double nextDepthFraction) {
+        if (_depthLimit > 0) {
+            maxDepth = _depthLimit;
+            nextDepthFraction = Double.POSITIVE_INFINITY;
+        }
+        _nodes = 0;
+        _depthReached = 0;
+        int[] moves = new int[Board.MAX_MOVES];
+        board.legalMoves(board.turn(), moves);
+        int best = moves[0];
+        int sense = board.turn() == WHITE ? 1 : -1;
+        for (int depth = 1; depth <= maxDepth; depth += 1) {
+            Node root = new Node(null, 0, board, 0, depth, sense,
+                                 -Searcher.INFTY, Searcher.INFTY);
+            _pool.invoke(root);
+            _pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            if (root._stopped) {
+                break;
+            }
+            best = root._bestMove;
+            _nodes += root._nodes;
+            _depthReached = depth;
+            if (Math.abs(root._value) >= Searcher.WINNING_VALUE
+                || _clock.fractionUsed() > nextDepthFraction) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    /** Return the number of nodes counted by the last think (see the
+     *  class comment), which does not depend on the number of
+     *  threads. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Return the depth of the last complete search. */
+    int depthReached() {
+        return _depthReached;
+    }
+
+    /** Return true iff none of my tasks is queued or running. */
+    boolean idle() {
+        return _pool.isQuiescent();
+    }
+
+    /** One node of the parallel part of the search tree. */
+    private final class Node extends RecursiveAction {
+
+        /** The node for the position reached by MOVE (packed, or 0 for
+         *  none) from the position on FROM, which must not change while
+         *  I may still run, that is move number INDEX of PARENT (null for
+         *  the root), to be searched to DEPTH with window ALPHA..BETA.
+         *  SENSE is 1 if White is to move and maximizes, else -1. */
+        Node(Node parent, int index, Board from, int move, int depth,
+             int sense, int alpha, int beta) {
+            _parent = parent;
+            _root = parent == null ? this : parent._root;
+            _index = index;
+            _from = from;
+            _move = move;
+            _depth = depth;
+            _sense = sense;
+            _alpha = alpha;
+            _beta = beta;
+        }
+
+        @Override
+        protected void compute() {
+            if (abandoned()) {
+                _from = null;
+                return;
+            }
+            _board = new Board(_from);
+            _from = null;
+            if (_move != 0) {
+                _board.makeMove(_move);
+            }
+            if (_board.winner() != null
+                || (_parent != null && _depth < SPLIT_DEPTH)) {
+                _value =
+                    serialSearch(_board, _depth, _sense, _alpha, _beta);
+            } else {
+                parallelSearch();
+            }
+            if (_parent != null && !abandoned()
+                && _parent.cutsOff(_value)) {
+                _parent.cutOffAt(_index);
+            }
+            _board = null;
+        }
+
+        /** Search my position: the eldest brother first, then the rest
+         *  in parallel. */
+        private void parallelSearch() {
+            _nodes += 1;
+            int[] scratch = buffers()[_depth];
+            int n = _board.legalMoves(_sense == 1 ? WHITE : BLACK, scratch);
+            int[] moves = Arrays.copyOf(scratch, n);
+            Node eldest = child(0, moves[0], _alpha, _beta);
+            eldest.compute();
+            if (abandoned()) {
+                return;
+            }
+            record(eldest, moves[0]);
+            if (cutsOff(_value) || n == 1) {
+                return;
+            }
+            int alpha = _sense == 1 ? Math.max(_alpha, _value) : _alpha;
+            int beta = _sense == 1 ? _beta : Math.min(_beta, _value);
+            Node[] brothers = new Node[n];
+            for (int i = 1; i < n; i += 1) {
+                brothers[i] = child(i, moves[i], alpha, beta);
+                brothers[i].fork();
+            }
+            int joined = 1;
+            while (joined < n && joined <= _cutoff) {
+                Node brother = brothers[joined];
+                int move = moves[joined];
+                joined += 1;
+                brother.join();
+                if (abandoned()) {
+                    break;
+                }
+                record(brother, move);
+                if (cutsOff(brother._value)) {
+                    break;
+                }
+            }
+            for (int i = joined; i < n; i += 1) {
+                brothers[i].cancel(false);
+            }
+        }
+
+        /** Return the node for my child number INDEX, reached by MOVE,
+         *  with window ALPHA..BETA. */
+        private Node child(int index, int move, int alpha, int beta) {
+            return new Node(this, index, _board, move, _depth - 1, -_sense,
+                            alpha, beta);
+        }
+
+        /** Account for the completed search of CHILD, reached by MOVE. */
+        private void record(Node child, int move) {
+            _nodes += child._nodes;
+            if (_bestMove == 0 || _sense * child._value > _sense * _value) {
+                _value = child._value;
+                _bestMove = move;
+            }
+        }
+
+        /** Return true iff a child value of VALUE causes a cutoff at
+         *  this node. */
+        boolean cutsOff(int value) {
+            return _sense == 1 ? value >= _beta : value <= _alpha;
+        }
+
+        /** Record that my child number INDEX caused a cutoff. */
+        synchronized void cutOffAt(int index) {
+            _cutoff = Math.min(_cutoff, index);
+        }
+
+        /** Return true iff my result is no longer needed: my search is
+         *  out of time, or some ancestor (or I) is a younger brother of a
+         *  move that caused a cutoff. */
+        boolean abandoned() {
+            if (_root._stopped) {
+                return true;
+            }
+            for (Node n = this; n._parent != null; n = n._parent) {
+                if (n._parent._cutoff < n._index) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Return the value of BOARD searched to DEPTH with window
+         *  ALPHA..BETA by ordinary (fail-soft) alpha-beta, SENSE being as
+         *  for the Node constructor, adding the nodes visited to
+         *  _nodes. */
+        private int serialSearch(Board board, int depth, int sense,
+                                 int alpha, int beta) {
+            _nodes += 1;
+            if ((_nodes & CHECK_MASK) == 0) {
+                if (_depthLimit == 0 && _clock.timeUp()) {
+                    _root._stopped = true;
+                }
+                _quit = abandoned();
+            }
+            if (_quit) {
+                return 0;
+            }
+            if (depth == 0 || board.winner() != null) {
+                return EVALUATORS.get().evaluate(board);
+            }
+            int[] moves = buffers()[depth];
+            int n = board.legalMoves(sense == 1 ? WHITE : BLACK, moves);
+            int best = sense == 1 ? -Searcher.INFTY : Searcher.INFTY;
+            for (int i = 0; i < n; i += 1) {
+                board.makeMove(moves[i]);
+                int value = serialSearch(board, depth - 1, -sense,
+                                         alpha, beta);
+                board.undo();
+                if (_quit) {
+                    return 0;
+                }
+                if (sense * value > sense * best) {
+                    best = value;
+                }
+                if (sense == 1) {
+                    alpha = Math.max(alpha, value);
+                } else {
+                    beta = Math.min(beta, value);
+                }
+                if (alpha >= beta) {
+                    break;
+                }
+            }
+            return best;
+        }
+
+        /** My parent, or null for the root. */
+        private final Node _parent;
+        /** The root of my search. */
+        private final Node _root;
+        /** My position among my parent's moves. */
+        private final int _index;
+        /** Depth to search, side to move, and window. */
+        private final int _depth, _sense, _alpha, _beta;
+        /** The position from which my move is made, until I run. */
+        private Board _from;
+        /** The move (packed) leading to my position, or 0 for none. */
+        private final int _move;
+        /** My position, once I run, dropped when done. */
+        private Board _board;
+        /** At the root, true iff my search has run out of time. */
+        private volatile boolean _stopped;
+        /** Position of the first child that caused a cutoff, if any. */
+        private volatile int _cutoff = Integer.MAX_VALUE;
+        /** My value, best move, and node count, once computed. */
+        private int _value, _bestMove;
+        /** Nodes counted in my subtree. */
+        private long _nodes;
+        /** True once my serial search has found itself abandoned. */
+        private boolean _quit;
+    }
+
+    /** Return the calling thread's move buffers for serial search,
+     *  indexed by depth.  A thread never blocks in the middle of a
+     *  serial search, so it never needs two sets at once. */
+    private static int[][] buffers() {
+        return BUFFERS.get();
+    }
+
+    /** Nodes at least this far from the horizon are searched in
+     *  parallel. */
+    private static final int SPLIT_DEPTH = 2;
+
+    /** A serial search checks the clock and for abandonment once every
+     *  CHECK_MASK + 1 nodes. */
+    private static final int CHECK_MASK = (1 << 10) - 1;
+
+    /** Per-thread static evaluators. */
+    private static final ThreadLocal<Evaluator> EVALUATORS =
+        ThreadLocal.withInitial(Evaluator::new);
+
+    /** Per-thread move buffers. */
+    private static final ThreadLocal<int[][]> BUFFERS =
+        ThreadLocal.withInitial(() ->
+            new int[Searcher.MAX_DEPTH + 1][Board.MAX_MOVES]);
+
+    /** The worker threads. */
+    private final ForkJoinPool _pool;
+    /** The shared clock. */
+    private final TimeManager _clock;
+    /** Fixed search depth, or 0 for a timed search. */
+    private int _depthLimit;
+    /** Nodes counted and depth reached by the last think. */
+    private long _nodes;
+    /** Depth of the last complete search. */
+    private int _depthReached;
+}